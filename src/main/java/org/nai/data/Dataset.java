@@ -1,43 +1,94 @@
 package org.nai.data;
 
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.FeatureStorage;
+import org.nai.structures.HeapFeatureMatrix;
 import org.nai.structures.Pair;
+import org.nai.structures.QuantizedFeatureMatrix;
 import org.nai.structures.Vector;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
 public class Dataset {
-    private final List<Pair<Integer, Vector>> data;
+    private final FeatureMatrix matrix;
 
     public Dataset() {
-        this.data = new ArrayList<>();
+        this.matrix = new HeapFeatureMatrix();
     }
 
     public Dataset(List<Pair<Integer, Vector>> data) {
-        this.data = data;
+        this();
+        append(data);
+    }
+
+    public Dataset(FeatureMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    public void add(int label, Vector vector) {
+        heapMatrix().add(label, vector);
     }
 
     public void add(Pair<Integer, Vector> pair) {
-        data.add(pair);
+        heapMatrix().add(pair.first(), pair.second());
+    }
+
+    public void addRow(FeatureMatrix source, int row) {
+        heapMatrix().addRow(source, row);
     }
 
     public void addAll(List<Pair<Integer, Vector>> entries) {
-        data.addAll(entries);
+        append(entries);
     }
 
     public int size() {
-        return data.size();
+        return matrix.rows();
+    }
+
+    public FeatureMatrix getMatrix() {
+        return matrix;
+    }
+
+    public QuantizedFeatureMatrix quantize(FeatureStorage storage) {
+        return QuantizedFeatureMatrix.of(matrix, storage);
     }
 
     public List<Pair<Integer, Vector>> getData() {
-        return data;
+        return new PairsView();
     }
 
     public List<Integer> getLabels() {
-        return data.stream().map((Pair::first)).toList();
+        return matrix.labelsView();
     }
 
     public List<Vector> getVectors() {
-        return data.stream().map((Pair::second)).toList();
+        return matrix.rowsView();
+    }
+
+    // Not overridable, so the constructor can use it without letting a subclass see a half-built dataset
+    private void append(List<Pair<Integer, Vector>> entries) {
+        HeapFeatureMatrix heap = heapMatrix();
+        for (Pair<Integer, Vector> entry : entries) {
+            heap.add(entry.first(), entry.second());
+        }
+    }
+
+    private HeapFeatureMatrix heapMatrix() {
+        if (matrix instanceof HeapFeatureMatrix heap) return heap;
+        throw new UnsupportedOperationException("Dataset backed by " + matrix.getClass().getSimpleName() + " is read-only");
+    }
+
+    private class PairsView extends AbstractList<Pair<Integer, Vector>> implements RandomAccess {
+        @Override
+        public Pair<Integer, Vector> get(int index) {
+            return new Pair<>(matrix.label(index), matrix.row(index));
+        }
+
+        @Override
+        public int size() {
+            return matrix.rows();
+        }
     }
 }
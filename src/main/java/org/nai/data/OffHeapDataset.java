@@ -0,0 +1,46 @@
+package org.nai.data;
+
+import org.nai.structures.SegmentFeatureMatrix;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Path;
+
+// Read-only dataset whose rows live outside the Java heap; close() releases the memory or the mapping
+public class OffHeapDataset extends Dataset implements AutoCloseable {
+    private final Arena arena;
+
+    private OffHeapDataset(Arena arena, SegmentFeatureMatrix matrix) {
+        super(matrix);
+        this.arena = arena;
+    }
+
+    public static OffHeapDataset copyOf(Dataset dataset) {
+        Arena arena = Arena.ofShared();
+        try {
+            return new OffHeapDataset(arena, SegmentFeatureMatrix.copyOf(dataset.getMatrix(), arena));
+        } catch (RuntimeException | Error e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    public static OffHeapDataset map(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try {
+            return new OffHeapDataset(arena, SegmentFeatureMatrix.map(file, arena));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    public static void write(Dataset dataset, Path file) throws IOException {
+        SegmentFeatureMatrix.write(dataset.getMatrix(), file);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -2,13 +2,15 @@ package org.nai.data;
 
 import org.nai.exceptions.NoFoldersFoundException;
 import org.nai.exceptions.UnsupportedFileFormatException;
-import org.nai.structures.Pair;
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.HeapFeatureMatrix;
 import org.nai.structures.Vector;
 import org.nai.utils.FeatureEncoder;
 import org.nai.utils.LabelEncoder;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -67,7 +69,7 @@ public class PrepareDataset {
                     }
                 }
 
-                dataset.add(new Pair<>(encodedLabel, new Vector(vectorArr)));
+                dataset.add(encodedLabel, Vector.wrap(vectorArr));
             }
         } catch (IOException e) {
             System.err.println("Reading data went wrong: " + e.getMessage());
@@ -101,7 +103,7 @@ public class PrepareDataset {
                 }
                 int lbl = encoder.encode(labelStr);
                 Vector vec = textToVector(textRaw);
-                dataset.add(new Pair<>(lbl, vec));
+                dataset.add(lbl, vec);
                 lineNumber++;
             }
         } catch (IOException e) {
@@ -137,7 +139,7 @@ public class PrepareDataset {
         for (File file : files) {
             String content = readFileContent(file);
             if (!content.isEmpty()) {
-                dataset.add(new Pair<>(lbl, textToVector(content)));
+                dataset.add(lbl, textToVector(content));
             }
         }
     }
@@ -159,25 +161,36 @@ public class PrepareDataset {
     //                      Stratified train/test split
     // ─────────────────────────────────────────────────────────────────────
     public SplitDataset trainTestSplit(Dataset wholeDataset, double trainRatio) {
-        Dataset trainSet = new Dataset();
-        Dataset testSet = new Dataset();
+        FeatureMatrix whole = wholeDataset.getMatrix();
+        Map<Integer, List<Integer>> byClass = new HashMap<>();
+        for (int row = 0; row < whole.rows(); row++) {
+            byClass.computeIfAbsent(whole.label(row), _ -> new ArrayList<>()).add(row);
+        }
 
-        Map<Integer, Dataset> byClass = new HashMap<>();
-        for (Pair<Integer, Vector> p : wholeDataset.getData()) {
-            byClass.computeIfAbsent(p.first(), _ -> new Dataset()).add(p);
+        // Cuts are known per class before any row is copied, so each side is sized exactly
+        int trainRows = 0;
+        for (List<Integer> rows : byClass.values()) {
+            trainRows += trainCount(rows.size(), trainRatio);
         }
+        Dataset trainSet = new Dataset(new HeapFeatureMatrix(whole.columns(), trainRows));
+        Dataset testSet = new Dataset(new HeapFeatureMatrix(whole.columns(), whole.rows() - trainRows));
 
-        for (Dataset bucket : byClass.values()) {
-            List<Pair<Integer, Vector>> data = bucket.getData();
-            Collections.shuffle(data);
-            int cut = Math.max(1, (int) Math.round(data.size() * trainRatio));
+        for (List<Integer> rows : byClass.values()) {
+            Collections.shuffle(rows);
+            int cut = trainCount(rows.size(), trainRatio);
 
-            trainSet.addAll(data.subList(0, cut));
-            testSet.addAll(data.subList(cut, data.size()));
+            for (int i = 0; i < rows.size(); i++) {
+                Dataset target = i < cut ? trainSet : testSet;
+                target.addRow(whole, rows.get(i));
+            }
         }
         return new SplitDataset(trainSet, testSet);
     }
 
+    private static int trainCount(int classRows, double trainRatio) {
+        return Math.max(1, (int) Math.round(classRows * trainRatio));
+    }
+
     // ─────────────────────────────────────────────────────────────────────
     //                         Text → 26‐dim letter‐freq vector
     // ─────────────────────────────────────────────────────────────────────
@@ -198,6 +211,6 @@ public class PrepareDataset {
             }
         }
 
-        return new Vector(data);
+        return Vector.wrap(data);
     }
 }
\ No newline at end of file
@@ -3,7 +3,8 @@ package org.nai.evaluation;
 import org.nai.data.SplitDataset;
 import org.nai.models.Classifier;
 import org.nai.models.Clusterer;
-import org.nai.structures.Cluster;
+import org.nai.structures.ClusteringResult;
+import org.nai.structures.FeatureMatrix;
 import org.nai.structures.Vector;
 
 import java.util.List;
@@ -37,15 +38,14 @@ public class EvaluationMetrics {
         checkClassifier();
         int correctPredictionsCount = 0;
 
-        List<Vector> testSetVectors = dataset.testSet().getVectors();
-        List<Integer> testSetLabels = dataset.testSet().getLabels();
+        FeatureMatrix testSet = dataset.testSet().getMatrix();
+        int[] answers = classifier.predictBatch(dataset.testSet());
 
-        for (int i = 0; i < testSetVectors.size(); i++) {
-            int answer = classifier.predict(testSetVectors.get(i));
-            if (answer == testSetLabels.get(i)) correctPredictionsCount++;
+        for (int i = 0; i < testSet.rows(); i++) {
+            if (answers[i] == testSet.label(i)) correctPredictionsCount++;
         }
 
-        double number = (double) correctPredictionsCount / testSetVectors.size();
+        double number = (double) correctPredictionsCount / testSet.rows();
         System.out.printf("Evaluated accuracy is: %.2f%%%n", number * 100);
         return number;
     }
@@ -55,13 +55,13 @@ public class EvaluationMetrics {
         int truePositives = 0;
         int falsePositives = 0;
 
-        List<Vector> testSetVectors = dataset.testSet().getVectors();
-        List<Integer> testSetLabels = dataset.testSet().getLabels();
+        FeatureMatrix testSet = dataset.testSet().getMatrix();
+        int[] answers = classifier.predictBatch(dataset.testSet());
 
-        for (int i = 0; i < testSetVectors.size(); i++) {
+        for (int i = 0; i < testSet.rows(); i++) {
 
-            int answer = classifier.predict(testSetVectors.get(i));
-            int correctAnswer = testSetLabels.get(i);
+            int answer = answers[i];
+            int correctAnswer = testSet.label(i);
 
             if (answer == correctAnswer && positiveClass == correctAnswer) truePositives++;
             else if (answer != correctAnswer && positiveClass == correctAnswer) falsePositives++;
@@ -81,14 +81,14 @@ public class EvaluationMetrics {
         int truePositives = 0;
         int falseNegatives = 0;
 
-        List<Vector> testSetVectors = dataset.testSet().getVectors();
-        List<Integer> testSetLabels = dataset.testSet().getLabels();
+        FeatureMatrix testSet = dataset.testSet().getMatrix();
+        int[] answers = classifier.predictBatch(dataset.testSet());
 
 
-        for (int i = 0; i < testSetVectors.size(); i++) {
+        for (int i = 0; i < testSet.rows(); i++) {
 
-            int answer = classifier.predict(testSetVectors.get(i));
-            int correctAnswer = testSetLabels.get(i);
+            int answer = answers[i];
+            int correctAnswer = testSet.label(i);
 
             if (answer == correctAnswer && positiveClass == correctAnswer) truePositives++;
             else if (answer != correctAnswer && positiveClass != correctAnswer) falseNegatives++;
@@ -110,13 +110,10 @@ public class EvaluationMetrics {
         return number;
     }
 
-    public static double computeWCSS(List<Cluster> clusters) {
+    public static double computeWCSS(ClusteringResult result) {
         double wcss = 0;
-        for (Cluster cluster : clusters) {
-            Vector center = cluster.getCentroid().coordinates();
-            for (Vector vector : cluster.getMembers()) {
-                wcss += center.squaredDistanceTo(vector);
-            }
+        for (int point = 0; point < result.size(); point++) {
+            wcss += result.squaredDistanceToCentroid(point);
         }
         return wcss;
     }
@@ -0,0 +1,95 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.HeapFeatureMatrix;
+import org.nai.structures.Vector;
+import org.nai.structures.VectorKernels;
+
+import java.util.Arrays;
+
+// Every node is bounded by a ball around the mean of its rows; a node is skipped when the ball
+// cannot reach closer than the current k-th best. Unlike KD-tree planes this stays useful in higher dimensions.
+public class BallTree extends SpatialTree {
+    private final int columns;
+    // Row i is the center of node i; nodes are fitted in creation order, so each center is appended
+    private final HeapFeatureMatrix centers;
+    private double[] radii = new double[16];
+
+    public BallTree(FeatureMatrix matrix) {
+        super(matrix);
+        this.columns = matrix.columns();
+        this.centers = new HeapFeatureMatrix(columns, 16);
+        if (rows.length > 0) build(0, rows.length);
+    }
+
+    @Override
+    protected void onGrow(int capacity) {
+        radii = Arrays.copyOf(radii, capacity);
+    }
+
+    private int build(int from, int to) {
+        int node = newNode(from, to);
+        fitBall(node, from, to);
+        if (to - from <= LEAF_SIZE) return node;
+
+        int column = widestDimension(from, to);
+        int mid = (from + to) >>> 1;
+        selectNth(from, to, mid, column);
+
+        int leftChild = build(from, mid);
+        int rightChild = build(mid, to);
+        left[node] = leftChild;
+        right[node] = rightChild;
+        return node;
+    }
+
+    private void fitBall(int node, int from, int to) {
+        double[] center = new double[columns];
+        double[] row = new double[columns];
+        for (int i = from; i < to; i++) {
+            matrix.copyRow(rows[i], row, 0);
+            for (int column = 0; column < columns; column++) {
+                center[column] += row[column];
+            }
+        }
+        for (int column = 0; column < columns; column++) {
+            center[column] /= (to - from);
+        }
+
+        double radius = 0;
+        for (int i = from; i < to; i++) {
+            matrix.copyRow(rows[i], row, 0);
+            radius = Math.max(radius, VectorKernels.get().squaredDistance(center, 0, row, 0, columns));
+        }
+        radii[node] = Math.sqrt(radius);
+        centers.add(0, Vector.wrap(center));
+    }
+
+    @Override
+    public void search(Vector query, NeighbourHeap heap) {
+        if (nodeCount > 0) search(0, query, heap);
+    }
+
+    private void search(int node, Vector query, NeighbourHeap heap) {
+        if (lowerBound(node, query) >= heap.worstDistance()) return;
+
+        if (isLeaf(node)) {
+            scanLeaf(node, query, heap);
+            return;
+        }
+
+        // Descend into the closer ball first so the bound tightens before the other one is tested
+        double toLeft = centers.squaredDistanceTo(left[node], query);
+        double toRight = centers.squaredDistanceTo(right[node], query);
+        int near = toLeft <= toRight ? left[node] : right[node];
+        int far = toLeft <= toRight ? right[node] : left[node];
+        search(near, query, heap);
+        search(far, query, heap);
+    }
+
+    // Squared distance from the query to the nearest point the ball could contain
+    private double lowerBound(int node, Vector query) {
+        double gap = Math.max(0, Math.sqrt(centers.squaredDistanceTo(node, query)) - radii[node]);
+        return gap * gap;
+    }
+}
@@ -0,0 +1,106 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.VectorKernel;
+import org.nai.structures.VectorKernels;
+
+// Exact batch search: scores a block of queries against the training rows tile by tile, so each training tile
+// is loaded into cache once per query block instead of once per query. Uses |q - t|² = |q|² + |t|² - 2 q·t
+// with the training norms computed up front, which makes the inner loop a plain dot product. Training rows stay
+// in the matrix, which may be off-heap; each tile is copied into a per-thread buffer only while it is scored.
+public class BlockedDistanceEngine {
+    // Query tile sized for L1, training tile for L2
+    private static final int L1_BYTES = 32 * 1024;
+    private static final int L2_BYTES = 256 * 1024;
+
+    private final FeatureMatrix matrix;
+    private final int columns;
+    private final double[] norms;
+    private final int queryTile;
+    private final int trainTile;
+    private final ThreadLocal<QueryBlock> queryBlock = ThreadLocal.withInitial(QueryBlock::new);
+
+    public BlockedDistanceEngine(FeatureMatrix matrix) {
+        this.matrix = matrix;
+        this.columns = matrix.columns();
+        this.norms = new double[matrix.rows()];
+        VectorKernel kernel = VectorKernels.get();
+        double[] values = new double[columns];
+        for (int row = 0; row < matrix.rows(); row++) {
+            matrix.copyRow(row, values, 0);
+            norms[row] = kernel.dot(values, 0, values, 0, columns);
+        }
+
+        int rowBytes = Math.max(columns, 1) * Double.BYTES;
+        this.queryTile = Math.max(1, L1_BYTES / 2 / rowBytes);
+        this.trainTile = Math.max(1, L2_BYTES / 2 / rowBytes);
+    }
+
+    public FeatureMatrix matrix() {
+        return matrix;
+    }
+
+    // Offers every training row to heaps[i - from] for each query row i in [from, to); the heaps must be reset
+    public void search(FeatureMatrix queries, int from, int to, NeighbourHeap[] heaps) {
+        if (queries.columns() != columns) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+        if (heaps.length < to - from) {
+            throw new IllegalArgumentException("Need one heap per query, got " + heaps.length + " for " + (to - from));
+        }
+
+        QueryBlock block = queryBlock.get();
+        block.load(queries, from, to, columns);
+        VectorKernel kernel = VectorKernels.get();
+        int rows = matrix.rows();
+        int count = to - from;
+
+        for (int trainStart = 0; trainStart < rows; trainStart += trainTile) {
+            int trainEnd = Math.min(trainStart + trainTile, rows);
+            double[] tile = block.loadTile(matrix, trainStart, trainEnd, columns);
+            for (int queryStart = 0; queryStart < count; queryStart += queryTile) {
+                int queryEnd = Math.min(queryStart + queryTile, count);
+                for (int q = queryStart; q < queryEnd; q++) {
+                    NeighbourHeap heap = heaps[q];
+                    int queryOffset = q * columns;
+                    double queryNorm = block.norms[q];
+                    for (int row = trainStart; row < trainEnd; row++) {
+                        int tileOffset = (row - trainStart) * columns;
+                        offer(heap, queryNorm, row, kernel.dot(block.values, queryOffset, tile, tileOffset, columns));
+                    }
+                }
+            }
+        }
+    }
+
+    // Cancellation can push near-identical pairs slightly below zero
+    private void offer(NeighbourHeap heap, double queryNorm, int row, double dot) {
+        heap.offer(Math.max(0, queryNorm + norms[row] - 2 * dot), row);
+    }
+
+    private static final class QueryBlock {
+        private double[] values = new double[0];
+        private double[] norms = new double[0];
+        private double[] tile = new double[0];
+
+        private void load(FeatureMatrix queries, int from, int to, int columns) {
+            int count = to - from;
+            if (values.length < count * columns) values = new double[count * columns];
+            if (norms.length < count) norms = new double[count];
+            VectorKernel kernel = VectorKernels.get();
+            for (int i = 0; i < count; i++) {
+                int offset = i * columns;
+                queries.copyRow(from + i, values, offset);
+                norms[i] = kernel.dot(values, offset, values, offset, columns);
+            }
+        }
+
+        private double[] loadTile(FeatureMatrix matrix, int from, int to, int columns) {
+            if (tile.length < (to - from) * columns) tile = new double[(to - from) * columns];
+            for (int row = from; row < to; row++) {
+                matrix.copyRow(row, tile, (row - from) * columns);
+            }
+            return tile;
+        }
+    }
+}
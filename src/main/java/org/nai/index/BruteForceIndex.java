@@ -0,0 +1,25 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Vector;
+
+// Linear scan into the bounded heap: O(n log k) per query and nothing allocated
+public class BruteForceIndex implements NeighbourIndex {
+    private final FeatureMatrix matrix;
+
+    public BruteForceIndex(FeatureMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    @Override
+    public FeatureMatrix matrix() {
+        return matrix;
+    }
+
+    @Override
+    public void search(Vector query, NeighbourHeap heap) {
+        for (int row = 0; row < matrix.rows(); row++) {
+            heap.offer(matrix.squaredDistanceTo(row, query), row);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.nai.index;
+
+import org.nai.structures.RowDistance;
+import org.nai.structures.VectorKernel;
+import org.nai.structures.VectorKernels;
+
+// Distances over row-major double[] storage. The bounded overload may stop early once the partial result reaches
+// the bound (the current k-th best), returning any value >= bound, since the caller will reject it anyway.
+public enum DistanceMetric implements RowDistance {
+    SQUARED_EUCLIDEAN(false) {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int length, double bound) {
+            return squaredSum(a, aOffset, b, bOffset, length, bound);
+        }
+    },
+    EUCLIDEAN(true) {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int length, double bound) {
+            return Math.sqrt(squaredSum(a, aOffset, b, bOffset, length, bound * bound));
+        }
+    },
+    MANHATTAN(true) {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int length, double bound) {
+            double sum = 0;
+            for (int from = 0; from < length; from += ABANDON_STRIDE) {
+                int to = Math.min(from + ABANDON_STRIDE, length);
+                for (int i = from; i < to; i++) {
+                    sum += Math.abs(a[aOffset + i] - b[bOffset + i]);
+                }
+                if (sum >= bound) return sum;
+            }
+            return sum;
+        }
+    },
+    CHEBYSHEV(true) {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int length, double bound) {
+            double max = 0;
+            for (int i = 0; i < length; i++) {
+                max = Math.max(max, Math.abs(a[aOffset + i] - b[bOffset + i]));
+                if (max >= bound) return max;
+            }
+            return max;
+        }
+    },
+    // 1 - cos(a, b). Rows and queries are normalised once up front (see normalizesRows), after which
+    // 1 - a·b = |a - b|² / 2, so the norms are never recomputed and early abandon still applies.
+    // A zero row stays zero and ends up at 0.5 from every unit row.
+    COSINE(false) {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int length, double bound) {
+            return squaredSum(a, aOffset, b, bOffset, length, 2 * bound) / 2;
+        }
+    };
+
+    // Coordinates summed between two bound checks: rare enough checks to keep the kernel loop tight
+    private static final int ABANDON_STRIDE = 16;
+
+    private final boolean trueMetric;
+
+    DistanceMetric(boolean trueMetric) {
+        this.trueMetric = trueMetric;
+    }
+
+    @Override
+    public abstract double distance(double[] a, int aOffset, double[] b, int bOffset, int length, double bound);
+
+    public double distance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return distance(a, aOffset, b, bOffset, length, Double.POSITIVE_INFINITY);
+    }
+
+    // Triangle inequality holds, which metric trees such as VpTree rely on for pruning
+    public boolean isTrueMetric() {
+        return trueMetric;
+    }
+
+    // Same neighbour ranking as squared Euclidean, so the Euclidean-only indexes can serve it
+    public boolean isEuclidean() {
+        return this == SQUARED_EUCLIDEAN || this == EUCLIDEAN;
+    }
+
+    public boolean normalizesRows() {
+        return this == COSINE;
+    }
+
+    private static double squaredSum(double[] a, int aOffset, double[] b, int bOffset, int length, double bound) {
+        VectorKernel kernel = VectorKernels.get();
+        double sum = 0;
+        for (int from = 0; from < length; from += ABANDON_STRIDE) {
+            int chunk = Math.min(ABANDON_STRIDE, length - from);
+            sum += kernel.squaredDistance(a, aOffset + from, b, bOffset + from, chunk);
+            if (sum >= bound) return sum;
+        }
+        return sum;
+    }
+}
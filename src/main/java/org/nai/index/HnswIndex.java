@@ -0,0 +1,382 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Vector;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+// Hierarchical navigable small world graph (Malkov & Yashunin): approximate search, so results may miss true neighbours.
+// Inserts may run concurrently with each other and with searches; link lists are guarded by striped node locks.
+public class HnswIndex implements NeighbourIndex {
+
+    public record Parameters(int m, int efConstruction, int efSearch) {
+        public static final Parameters DEFAULT = new Parameters(16, 200, 50);
+
+        public Parameters {
+            if (m < 2 || efConstruction < 1 || efSearch < 1) {
+                throw new IllegalArgumentException("HNSW needs m >= 2 and positive ef values");
+            }
+        }
+    }
+
+    private static final int LOCK_STRIPES = 1024;
+
+    private final FeatureMatrix matrix;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private volatile int efSearch;
+
+    // Growth of the node arrays takes the write lock; inserts and searches share the read lock
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final Object[] nodeLocks = new Object[LOCK_STRIPES];
+    private final Object entryLock = new Object();
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(this::newScratch);
+
+    // links[node][level] = {count, neighbour_1, ..., neighbour_count, unused...}
+    private int[][][] links = new int[0][][];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(FeatureMatrix matrix, Parameters parameters) {
+        this.matrix = matrix;
+        this.m = parameters.m();
+        this.maxM0 = 2 * parameters.m();
+        this.efConstruction = parameters.efConstruction();
+        this.efSearch = parameters.efSearch();
+        this.levelMultiplier = 1 / Math.log(parameters.m());
+        for (int i = 0; i < LOCK_STRIPES; i++) nodeLocks[i] = new Object();
+
+        ensureCapacity(matrix.rows());
+        if (matrix.rows() > 0) {
+            insert(0);
+            IntStream.range(1, matrix.rows()).parallel().forEach(this::insert);
+        }
+    }
+
+    @Override
+    public FeatureMatrix matrix() {
+        return matrix;
+    }
+
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1) throw new IllegalArgumentException("efSearch must be positive");
+        this.efSearch = efSearch;
+    }
+
+    // Adds one row of the matrix to the graph, e.g. after the matrix has grown; each row may be inserted once
+    public void insert(int row) {
+        if (row < 0 || row >= matrix.rows()) {
+            throw new IndexOutOfBoundsException("Invalid row: " + row);
+        }
+        ensureCapacity(row + 1);
+
+        structureLock.readLock().lock();
+        try {
+            insertLocked(row);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void search(Vector query, NeighbourHeap heap) {
+        structureLock.readLock().lock();
+        try {
+            int entry;
+            int topLevel;
+            synchronized (entryLock) {
+                entry = entryPoint;
+                topLevel = maxLevel;
+            }
+            if (entry < 0) return;
+
+            Scratch buffers = scratch.get();
+            double entryDistance = matrix.squaredDistanceTo(entry, query);
+            for (int level = topLevel; level > 0; level--) {
+                searchLayer(query, entry, entryDistance, 1, level, buffers);
+                entry = buffers.results.id(0);
+                entryDistance = buffers.results.distance(0);
+            }
+
+            searchLayer(query, entry, entryDistance, Math.max(efSearch, heap.capacity()), 0, buffers);
+            NeighbourHeap results = buffers.results;
+            for (int i = 0; i < results.size(); i++) {
+                heap.offer(results.distance(i), results.id(i));
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    private void insertLocked(int row) {
+        int level = randomLevel();
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[maxLinks(l) + 1];
+        }
+        links[row] = nodeLinks;
+
+        int entry;
+        int topLevel;
+        synchronized (entryLock) {
+            entry = entryPoint;
+            topLevel = maxLevel;
+            if (entry < 0) {
+                entryPoint = row;
+                maxLevel = level;
+                return;
+            }
+        }
+
+        Scratch buffers = scratch.get();
+        Vector point = matrix.row(row);
+        double entryDistance = matrix.squaredDistanceTo(entry, point);
+
+        for (int l = topLevel; l > level; l--) {
+            searchLayer(point, entry, entryDistance, 1, l, buffers);
+            entry = buffers.results.id(0);
+            entryDistance = buffers.results.distance(0);
+        }
+
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            searchLayer(point, entry, entryDistance, efConstruction, l, buffers);
+            NeighbourHeap results = buffers.results;
+            results.sort();
+            entry = results.id(0);
+            entryDistance = results.distance(0);
+
+            int[] selected = buffers.selected;
+            int count = selectNeighbours(results, m, selected);
+            synchronized (lockOf(row)) {
+                int[] list = links[row][l];
+                System.arraycopy(selected, 0, list, 1, count);
+                list[0] = count;
+            }
+            for (int i = 0; i < count; i++) {
+                connect(selected[i], row, l, buffers);
+            }
+        }
+
+        if (level > topLevel) {
+            synchronized (entryLock) {
+                if (level > maxLevel) {
+                    entryPoint = row;
+                    maxLevel = level;
+                }
+            }
+        }
+    }
+
+    // Adds the back link node -> neighbour, pruning node's list with the same heuristic when it overflows
+    private void connect(int node, int neighbour, int level, Scratch buffers) {
+        synchronized (lockOf(node)) {
+            int[] list = links[node][level];
+            int count = list[0];
+            if (count < list.length - 1) {
+                list[count + 1] = neighbour;
+                list[0] = count + 1;
+                return;
+            }
+
+            NeighbourHeap candidates = buffers.pruning;
+            candidates.reset(count + 1);
+            for (int i = 1; i <= count; i++) {
+                candidates.offer(matrix.squaredDistanceBetween(node, list[i]), list[i]);
+            }
+            candidates.offer(matrix.squaredDistanceBetween(node, neighbour), neighbour);
+            candidates.sort();
+
+            int kept = selectNeighbours(candidates, maxLinks(level), buffers.pruned);
+            System.arraycopy(buffers.pruned, 0, list, 1, kept);
+            list[0] = kept;
+        }
+    }
+
+    // Keeps a candidate only if it is closer to the base than to every neighbour kept so far, which spreads
+    // links over different directions instead of bunching them in one dense region
+    private int selectNeighbours(NeighbourHeap sortedCandidates, int limit, int[] target) {
+        int selected = 0;
+        for (int i = 0; i < sortedCandidates.size() && selected < limit; i++) {
+            int candidate = sortedCandidates.id(i);
+            double toBase = sortedCandidates.distance(i);
+            boolean keep = true;
+            for (int j = 0; j < selected && keep; j++) {
+                keep = matrix.squaredDistanceBetween(candidate, target[j]) >= toBase;
+            }
+            if (keep) target[selected++] = candidate;
+        }
+        return selected;
+    }
+
+    // Best-first search of one layer; leaves the ef closest nodes found in buffers.results
+    private void searchLayer(Vector query, int entry, double entryDistance, int ef, int level, Scratch buffers) {
+        buffers.startVisit(links.length);
+        buffers.visit(entry);
+
+        MinQueue candidates = buffers.candidates;
+        candidates.clear();
+        candidates.push(entryDistance, entry);
+
+        NeighbourHeap results = buffers.results;
+        results.reset(ef);
+        results.offer(entryDistance, entry);
+
+        while (!candidates.isEmpty()) {
+            if (candidates.peekDistance() > results.worstDistance()) break;
+            int current = candidates.pop();
+
+            int count = copyLinks(current, level, buffers);
+            for (int i = 0; i < count; i++) {
+                int neighbour = buffers.linkBuffer[i];
+                if (!buffers.visit(neighbour)) continue;
+
+                double distance = matrix.squaredDistanceTo(neighbour, query);
+                if (distance < results.worstDistance()) {
+                    candidates.push(distance, neighbour);
+                    results.offer(distance, neighbour);
+                }
+            }
+        }
+    }
+
+    private int copyLinks(int node, int level, Scratch buffers) {
+        synchronized (lockOf(node)) {
+            int[] list = links[node][level];
+            int count = list[0];
+            System.arraycopy(list, 1, buffers.linkBuffer, 0, count);
+            return count;
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        structureLock.readLock().lock();
+        try {
+            if (required <= links.length) return;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+
+        structureLock.writeLock().lock();
+        try {
+            if (required > links.length) {
+                links = Arrays.copyOf(links, Math.max(required, links.length * 2));
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    private int randomLevel() {
+        double uniform = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return (int) (-Math.log(uniform) * levelMultiplier);
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private Object lockOf(int node) {
+        return nodeLocks[node & (LOCK_STRIPES - 1)];
+    }
+
+    private Scratch newScratch() {
+        return new Scratch(maxM0);
+    }
+
+    private static final class Scratch {
+        private final MinQueue candidates = new MinQueue();
+        private final NeighbourHeap results = new NeighbourHeap(16);
+        private final NeighbourHeap pruning = new NeighbourHeap(16);
+        private final int[] linkBuffer;
+        // Separate buffers: connect() prunes a neighbour's list while the insert still walks its own selection
+        private final int[] selected;
+        private final int[] pruned;
+
+        private Scratch(int maxLinks) {
+            linkBuffer = new int[maxLinks];
+            selected = new int[maxLinks];
+            pruned = new int[maxLinks];
+        }
+
+        // Visited marks are stamped with a generation number so they never need clearing between searches
+        private int[] visited = new int[0];
+        private int generation;
+
+        private void startVisit(int capacity) {
+            if (visited.length < capacity) {
+                visited = new int[capacity];
+                generation = 0;
+            }
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+        }
+
+        private boolean visit(int node) {
+            if (visited[node] == generation) return false;
+            visited[node] = generation;
+            return true;
+        }
+    }
+
+    // Binary min-heap of (distance, node) used as the best-first frontier
+    private static final class MinQueue {
+        private double[] distances = new double[64];
+        private int[] nodes = new int[64];
+        private int size;
+
+        private void clear() {
+            size = 0;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private double peekDistance() {
+            return distances[0];
+        }
+
+        private void push(double distance, int node) {
+            if (size == distances.length) {
+                distances = Arrays.copyOf(distances, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int position = size++;
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (distances[parent] <= distance) break;
+                distances[position] = distances[parent];
+                nodes[position] = nodes[parent];
+                position = parent;
+            }
+            distances[position] = distance;
+            nodes[position] = node;
+        }
+
+        private int pop() {
+            int top = nodes[0];
+            double lastDistance = distances[--size];
+            int lastNode = nodes[size];
+            int position = 0;
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) break;
+                if (child + 1 < size && distances[child + 1] < distances[child]) child++;
+                if (distances[child] >= lastDistance) break;
+                distances[position] = distances[child];
+                nodes[position] = nodes[child];
+                position = child;
+            }
+            distances[position] = lastDistance;
+            nodes[position] = lastNode;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+
+public enum IndexType {
+    AUTO,
+    BRUTE_FORCE,
+    KD_TREE,
+    BALL_TREE,
+    // Approximate: built with HnswIndex.Parameters.DEFAULT
+    HNSW,
+    // Works for any true metric; with the Euclidean metrics it prunes on Euclidean distance and reports it squared
+    VP_TREE;
+
+    // Below this many rows a linear scan beats any tree
+    private static final int BRUTE_FORCE_MAX_ROWS = 64;
+    // KD-tree pruning degrades quickly with dimensionality, ball trees hold up longer
+    private static final int KD_TREE_MAX_COLUMNS = 16;
+
+    public NeighbourIndex build(FeatureMatrix matrix) {
+        return switch (this) {
+            case BRUTE_FORCE -> new BruteForceIndex(matrix);
+            case KD_TREE -> new KdTree(matrix);
+            case BALL_TREE -> new BallTree(matrix);
+            case HNSW -> new HnswIndex(matrix, HnswIndex.Parameters.DEFAULT);
+            case VP_TREE -> new VpTree(matrix, DistanceMetric.SQUARED_EUCLIDEAN);
+            case AUTO -> {
+                if (matrix.rows() < BRUTE_FORCE_MAX_ROWS) yield new BruteForceIndex(matrix);
+                yield matrix.columns() <= KD_TREE_MAX_COLUMNS ? new KdTree(matrix) : new BallTree(matrix);
+            }
+        };
+    }
+
+    // Non-Euclidean metrics are served by the scan and the VP-tree only; AUTO picks the tree when the metric allows it
+    public NeighbourIndex build(FeatureMatrix matrix, DistanceMetric metric) {
+        if (metric.isEuclidean()) return build(matrix);
+
+        return switch (this) {
+            case BRUTE_FORCE -> new MetricScanIndex(matrix, metric);
+            case VP_TREE -> new VpTree(matrix, metric);
+            case AUTO -> matrix.rows() >= BRUTE_FORCE_MAX_ROWS && metric.isTrueMetric()
+                    ? new VpTree(matrix, metric)
+                    : new MetricScanIndex(matrix, metric);
+            default -> throw new IllegalArgumentException(this + " only supports Euclidean distance, not " + metric);
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Vector;
+
+import java.util.Arrays;
+
+// Median-split KD-tree; a subtree is skipped when its splitting plane is farther than the current k-th best
+public class KdTree extends SpatialTree {
+    private int[] splitColumn = new int[16];
+    private double[] splitValue = new double[16];
+
+    public KdTree(FeatureMatrix matrix) {
+        super(matrix);
+        if (rows.length > 0) build(0, rows.length);
+    }
+
+    @Override
+    protected void onGrow(int capacity) {
+        splitColumn = Arrays.copyOf(splitColumn, capacity);
+        splitValue = Arrays.copyOf(splitValue, capacity);
+    }
+
+    private int build(int from, int to) {
+        int node = newNode(from, to);
+        if (to - from <= LEAF_SIZE) return node;
+
+        int column = widestDimension(from, to);
+        int mid = (from + to) >>> 1;
+        selectNth(from, to, mid, column);
+
+        splitColumn[node] = column;
+        splitValue[node] = matrix.get(rows[mid], column);
+        int leftChild = build(from, mid);
+        int rightChild = build(mid, to);
+        left[node] = leftChild;
+        right[node] = rightChild;
+        return node;
+    }
+
+    @Override
+    public void search(Vector query, NeighbourHeap heap) {
+        if (nodeCount > 0) search(0, query, heap);
+    }
+
+    private void search(int node, Vector query, NeighbourHeap heap) {
+        if (isLeaf(node)) {
+            scanLeaf(node, query, heap);
+            return;
+        }
+
+        double diff = query.get(splitColumn[node]) - splitValue[node];
+        int near = diff < 0 ? left[node] : right[node];
+        int far = diff < 0 ? right[node] : left[node];
+
+        search(near, query, heap);
+        if (diff * diff < heap.worstDistance()) {
+            search(far, query, heap);
+        }
+    }
+}
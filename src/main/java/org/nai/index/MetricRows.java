@@ -0,0 +1,75 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.HeapFeatureMatrix;
+import org.nai.structures.Vector;
+import org.nai.structures.VectorKernels;
+
+// A matrix read under one metric. Rows are used in place, except for a metric that normalises rows: those are
+// normalised once into a packed copy, and each query into a per-thread buffer
+final class MetricRows {
+    final DistanceMetric metric;
+    final int columns;
+    private final FeatureMatrix rows;
+    private final ThreadLocal<QueryBuffer> queryBuffer;
+
+    MetricRows(FeatureMatrix matrix, DistanceMetric metric) {
+        this.metric = metric;
+        this.columns = matrix.columns();
+        this.rows = metric.normalizesRows() ? normalized(matrix) : matrix;
+        this.queryBuffer = metric.normalizesRows() ? ThreadLocal.withInitial(() -> new QueryBuffer(columns)) : null;
+    }
+
+    // Only valid until the calling thread prepares its next query
+    Vector prepareQuery(Vector query) {
+        if (query.size() != columns) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+        if (!metric.normalizesRows()) return query;
+
+        QueryBuffer buffer = queryBuffer.get();
+        for (int i = 0; i < columns; i++) {
+            buffer.values[i] = query.get(i);
+        }
+        normalize(buffer.values, 0, columns);
+        return buffer.vector;
+    }
+
+    double distance(int row, Vector query, double bound) {
+        return rows.distanceTo(row, query, metric, bound);
+    }
+
+    double distanceBetween(int rowA, int rowB) {
+        return rows.distanceBetween(rowA, rowB, metric);
+    }
+
+    private static FeatureMatrix normalized(FeatureMatrix matrix) {
+        HeapFeatureMatrix normalized = new HeapFeatureMatrix(matrix.columns(), matrix.rows());
+        double[] values = new double[matrix.columns()];
+        Vector row = Vector.wrap(values);
+        for (int i = 0; i < matrix.rows(); i++) {
+            matrix.copyRow(i, values, 0);
+            normalize(values, 0, values.length);
+            normalized.add(matrix.label(i), row);
+        }
+        return normalized;
+    }
+
+    private static void normalize(double[] values, int offset, int length) {
+        double norm = Math.sqrt(VectorKernels.get().dot(values, offset, values, offset, length));
+        if (norm == 0) return;
+        for (int i = offset; i < offset + length; i++) {
+            values[i] /= norm;
+        }
+    }
+
+    private static final class QueryBuffer {
+        private final double[] values;
+        private final Vector vector;
+
+        private QueryBuffer(int columns) {
+            this.values = new double[columns];
+            this.vector = Vector.wrap(values);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Vector;
+
+// Linear scan under any DistanceMetric; each row is abandoned as soon as it cannot beat the current k-th best
+public class MetricScanIndex implements NeighbourIndex {
+    private final FeatureMatrix matrix;
+    private final MetricRows rows;
+
+    public MetricScanIndex(FeatureMatrix matrix, DistanceMetric metric) {
+        this.matrix = matrix;
+        this.rows = new MetricRows(matrix, metric);
+    }
+
+    @Override
+    public FeatureMatrix matrix() {
+        return matrix;
+    }
+
+    @Override
+    public void search(Vector query, NeighbourHeap heap) {
+        Vector point = rows.prepareQuery(query);
+        for (int row = 0; row < matrix.rows(); row++) {
+            heap.offer(rows.distance(row, point, heap.worstDistance()), row);
+        }
+    }
+}
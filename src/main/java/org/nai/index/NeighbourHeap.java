@@ -0,0 +1,119 @@
+package org.nai.index;
+
+import java.util.Arrays;
+
+// Bounded max-heap over primitive arrays: keeps the k smallest distances seen, the worst one on top
+public class NeighbourHeap {
+    private double[] distances;
+    private int[] ids;
+    private int capacity;
+    private int size;
+
+    public NeighbourHeap(int capacity) {
+        this.distances = new double[Math.max(capacity, 1)];
+        this.ids = new int[Math.max(capacity, 1)];
+        this.capacity = capacity;
+    }
+
+    // Empties the heap and changes its bound, growing the buffers only when needed
+    public void reset(int capacity) {
+        if (capacity > distances.length) {
+            distances = new double[capacity];
+            ids = new int[capacity];
+        }
+        this.capacity = capacity;
+        this.size = 0;
+    }
+
+    public boolean offer(double distance, int id) {
+        if (size < capacity) {
+            distances[size] = distance;
+            ids[size] = id;
+            siftUp(size++);
+            return true;
+        }
+        if (capacity == 0 || distance >= distances[0]) return false;
+        distances[0] = distance;
+        ids[0] = id;
+        siftDown(0, size);
+        return true;
+    }
+
+    // Distance a candidate has to beat to get in; infinite until the heap is full
+    public double worstDistance() {
+        return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    public double distance(int position) {
+        checkPosition(position);
+        return distances[position];
+    }
+
+    public int id(int position) {
+        checkPosition(position);
+        return ids[position];
+    }
+
+    // Heap-sorts the entries in place, nearest first; the heap must be reset before offering again
+    public void sort() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    public int[] ids() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    // Helper
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (distances[parent] >= distances[position]) return;
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position, int end) {
+        while (true) {
+            int largest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < end && distances[left] > distances[largest]) largest = left;
+            if (right < end && distances[right] > distances[largest]) largest = right;
+            if (largest == position) return;
+            swap(position, largest);
+            position = largest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double distance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = distance;
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Invalid position: " + position);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Vector;
+
+public interface NeighbourIndex {
+    FeatureMatrix matrix();
+
+    // Fills the heap with the rows nearest to the query, up to its capacity; distances are squared Euclidean
+    // unless the index was built for another DistanceMetric
+    void search(Vector query, NeighbourHeap heap);
+}
@@ -0,0 +1,220 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.HeapFeatureMatrix;
+import org.nai.structures.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Function;
+
+// Immutable snapshot of a growing reference set. Rows live in segments, each with its own index; new rows go into
+// a small scanned tail that is sealed into an indexed segment once full, and removed rows are tombstoned until
+// compaction. Every update returns a new snapshot sharing the untouched segments (copy-on-write), so a reader
+// holding a snapshot never sees a half-applied change. Row ids are stable across updates and compaction.
+public final class SegmentedIndex {
+    // Tail size at which it gets sealed into an indexed segment
+    public static final int TAIL_ROWS = 1024;
+
+    private final Segment[] segments;
+    private final int tail;
+    private final BitSet removed;
+    private final int removedCount;
+    private final int nextId;
+    private final DistanceMetric metric;
+    private final Function<FeatureMatrix, NeighbourIndex> builder;
+
+    // firstId..lastId bound the ids of the segment; ids == null means they are contiguous from firstId
+    private record Segment(NeighbourIndex index, int firstId, int lastId, int[] ids, int removed) {
+        FeatureMatrix matrix() {
+            return index.matrix();
+        }
+
+        int localRow(int id) {
+            if (ids == null) return id - firstId;
+            return Arrays.binarySearch(ids, id);
+        }
+
+        int id(int localRow) {
+            return ids == null ? firstId + localRow : ids[localRow];
+        }
+
+        Segment withRemoved(int delta) {
+            return new Segment(index, firstId, lastId, ids, removed + delta);
+        }
+    }
+
+    private SegmentedIndex(Segment[] segments, int tail, BitSet removed, int removedCount, int nextId,
+                           DistanceMetric metric, Function<FeatureMatrix, NeighbourIndex> builder) {
+        this.segments = segments;
+        this.tail = tail;
+        this.removed = removed;
+        this.removedCount = removedCount;
+        this.nextId = nextId;
+        this.metric = metric;
+        this.builder = builder;
+    }
+
+    // Wraps an index built over the initial rows, which keep their row numbers as ids
+    public static SegmentedIndex of(NeighbourIndex index, DistanceMetric metric, Function<FeatureMatrix, NeighbourIndex> builder) {
+        int rows = index.matrix().rows();
+        Segment initial = new Segment(index, 0, rows - 1, null, 0);
+        return new SegmentedIndex(new Segment[]{initial}, -1, new BitSet(), 0, rows, metric, builder);
+    }
+
+    public int nextId() {
+        return nextId;
+    }
+
+    public int size() {
+        return rowCount() - removedCount;
+    }
+
+    public List<NeighbourIndex> indexes() {
+        List<NeighbourIndex> indexes = new ArrayList<>(segments.length);
+        for (Segment segment : segments) indexes.add(segment.index());
+        return indexes;
+    }
+
+    // True while the snapshot is exactly the initial index: ids are its row numbers and nothing is hidden
+    public boolean isUnchanged() {
+        return segments.length == 1 && segments[0].ids() == null && removedCount == 0;
+    }
+
+    public boolean contains(int id) {
+        if (id < 0 || id >= nextId || removed.get(id)) return false;
+        int segment = locate(id);
+        return segment >= 0 && segments[segment].localRow(id) >= 0;
+    }
+
+    public int label(int id) {
+        int segment = locate(id);
+        if (segment < 0) throw new IndexOutOfBoundsException("Unknown id: " + id);
+        Segment owner = segments[segment];
+        int row = owner.localRow(id);
+        if (row < 0) throw new IndexOutOfBoundsException("Unknown id: " + id);
+        return owner.matrix().label(row);
+    }
+
+    // Fills the heap with the ids of the nearest live rows; segmentHeap is scratch space for the per-segment search
+    public void search(Vector query, NeighbourHeap heap, NeighbourHeap segmentHeap) {
+        if (isUnchanged()) {
+            segments[0].index().search(query, heap);
+            return;
+        }
+
+        for (Segment segment : segments) {
+            int rows = segment.matrix().rows();
+            if (rows == segment.removed()) continue;
+            // Asking for k plus the segment's tombstones guarantees k live rows whenever the segment has them
+            segmentHeap.reset(Math.min(heap.capacity() + segment.removed(), rows));
+            segment.index().search(query, segmentHeap);
+            for (int i = 0; i < segmentHeap.size(); i++) {
+                int id = segment.id(segmentHeap.id(i));
+                if (segment.removed() == 0 || !removed.get(id)) heap.offer(segmentHeap.distance(i), id);
+            }
+        }
+    }
+
+    // Copies only the tail; sealed segments are shared with this snapshot
+    public SegmentedIndex withAdded(int label, Vector vector) {
+        int columns = segments[0].matrix().columns();
+        if (columns > 0 && vector.size() != columns) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+
+        int id = nextId;
+        HeapFeatureMatrix rows = new HeapFeatureMatrix(vector.size(), 16);
+        int firstId = id;
+        if (tail >= 0) {
+            FeatureMatrix current = segments[tail].matrix();
+            rows = new HeapFeatureMatrix(current.columns(), current.rows() + 1);
+            for (int row = 0; row < current.rows(); row++) rows.addRow(current, row);
+            firstId = segments[tail].firstId();
+        }
+        rows.add(label, vector);
+
+        boolean seal = rows.rows() >= TAIL_ROWS;
+        // Segments merge into one heap, so the scanned tail must report distances on the same scale as the
+        // builder's indexes: squared Euclidean for the Euclidean metrics, the metric itself otherwise
+        NeighbourIndex index = seal ? builder.apply(rows) : IndexType.BRUTE_FORCE.build(rows, metric);
+        int tailRemoved = tail >= 0 ? segments[tail].removed() : 0;
+        Segment updated = new Segment(index, firstId, id, null, tailRemoved);
+
+        Segment[] next;
+        if (tail >= 0) {
+            next = segments.clone();
+            next[tail] = updated;
+        } else {
+            next = Arrays.copyOf(segments, segments.length + 1);
+            next[segments.length] = updated;
+        }
+        int nextTail = seal ? -1 : (tail >= 0 ? tail : segments.length);
+        return new SegmentedIndex(next, nextTail, removed, removedCount, id + 1, metric, builder);
+    }
+
+    // Returns this snapshot unchanged when the id is unknown or already removed
+    public SegmentedIndex withRemoved(int id) {
+        if (!contains(id)) return this;
+
+        int segment = locate(id);
+        BitSet nextRemoved = (BitSet) removed.clone();
+        nextRemoved.set(id);
+        Segment[] next = segments.clone();
+        next[segment] = segments[segment].withRemoved(1);
+        return new SegmentedIndex(next, tail, nextRemoved, removedCount + 1, nextId, metric, builder);
+    }
+
+    // Worth compacting once tombstones make up a large share of the rows, since every search pays for them
+    public boolean needsCompaction() {
+        return removedCount > 0 && removedCount * 4 >= rowCount();
+    }
+
+    // Rebuilds all live rows into one indexed segment, dropping tombstones; ids are kept
+    public SegmentedIndex compacted() {
+        int live = size();
+        if (live == 0) {
+            HeapFeatureMatrix empty = new HeapFeatureMatrix(segments[0].matrix().columns(), 1);
+            Segment segment = new Segment(builder.apply(empty), 0, -1, new int[0], 0);
+            return new SegmentedIndex(new Segment[]{segment}, -1, new BitSet(), 0, nextId, metric, builder);
+        }
+
+        HeapFeatureMatrix rows = new HeapFeatureMatrix(segments[0].matrix().columns(), live);
+        int[] ids = new int[live];
+        int count = 0;
+        for (Segment segment : segments) {
+            FeatureMatrix matrix = segment.matrix();
+            for (int row = 0; row < matrix.rows(); row++) {
+                int id = segment.id(row);
+                if (removed.get(id)) continue;
+                rows.addRow(matrix, row);
+                ids[count++] = id;
+            }
+        }
+        Segment segment = new Segment(builder.apply(rows), ids[0], ids[live - 1], ids, 0);
+        return new SegmentedIndex(new Segment[]{segment}, -1, new BitSet(), 0, nextId, metric, builder);
+    }
+
+    // Helper
+
+    private int rowCount() {
+        int rows = 0;
+        for (Segment segment : segments) rows += segment.matrix().rows();
+        return rows;
+    }
+
+    // Segments cover increasing, disjoint id ranges, so a binary search over their first ids finds the owner
+    private int locate(int id) {
+        int lo = 0;
+        int hi = segments.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segments[mid].lastId() < id) lo = mid + 1;
+            else if (segments[mid].firstId() > id) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+}
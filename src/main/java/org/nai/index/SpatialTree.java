@@ -0,0 +1,102 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Vector;
+
+import java.util.Arrays;
+
+// Shared skeleton of the binary space-partitioning trees: rows are permuted so every node owns a contiguous range
+abstract class SpatialTree implements NeighbourIndex {
+    protected static final int LEAF_SIZE = 16;
+
+    protected final FeatureMatrix matrix;
+    protected final int[] rows;
+
+    protected int[] start = new int[16];
+    protected int[] end = new int[16];
+    protected int[] left = new int[16];
+    protected int[] right = new int[16];
+    protected int nodeCount;
+
+    protected SpatialTree(FeatureMatrix matrix) {
+        this.matrix = matrix;
+        this.rows = new int[matrix.rows()];
+        for (int i = 0; i < rows.length; i++) rows[i] = i;
+    }
+
+    @Override
+    public FeatureMatrix matrix() {
+        return matrix;
+    }
+
+    protected int newNode(int from, int to) {
+        if (nodeCount == start.length) {
+            int capacity = nodeCount * 2;
+            start = Arrays.copyOf(start, capacity);
+            end = Arrays.copyOf(end, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            onGrow(capacity);
+        }
+        start[nodeCount] = from;
+        end[nodeCount] = to;
+        left[nodeCount] = -1;
+        right[nodeCount] = -1;
+        return nodeCount++;
+    }
+
+    // Lets subclasses grow their own per-node arrays together with the shared ones
+    protected abstract void onGrow(int capacity);
+
+    protected boolean isLeaf(int node) {
+        return left[node] < 0;
+    }
+
+    protected void scanLeaf(int node, Vector query, NeighbourHeap heap) {
+        for (int i = start[node]; i < end[node]; i++) {
+            heap.offer(matrix.squaredDistanceTo(rows[i], query), rows[i]);
+        }
+    }
+
+    protected int widestDimension(int from, int to) {
+        int best = 0;
+        double bestSpread = -1;
+        for (int column = 0; column < matrix.columns(); column++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = matrix.get(rows[i], column);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                best = column;
+            }
+        }
+        return best;
+    }
+
+    // Quickselect: afterwards rows[nth] holds the median along the column, smaller values before it, larger after
+    protected void selectNth(int from, int to, int nth, int column) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            double pivot = matrix.get(rows[(lo + hi) >>> 1], column);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (matrix.get(rows[i], column) < pivot) i++;
+                while (matrix.get(rows[j], column) > pivot) j--;
+                if (i <= j) {
+                    int tmp = rows[i];
+                    rows[i++] = rows[j];
+                    rows[j--] = tmp;
+                }
+            }
+            if (nth <= j) hi = j;
+            else if (nth >= i) lo = i;
+            else return;
+        }
+    }
+}
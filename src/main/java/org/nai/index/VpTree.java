@@ -0,0 +1,126 @@
+package org.nai.index;
+
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Vector;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Vantage-point tree: every node splits its rows by the median distance to one vantage row. Only the triangle
+// inequality is used for pruning, so it works for any true metric, not just coordinate-aligned ones.
+// SQUARED_EUCLIDEAN is not a metric, so that tree is built and pruned on EUCLIDEAN and squares the distances it
+// reports, matching the other Euclidean indexes.
+public class VpTree extends SpatialTree {
+    private final MetricRows metricRows;
+    private final boolean squared;
+    private final Random random = new Random(42);
+    private double[] buildDistances;
+
+    private int[] vantage = new int[16];
+    private double[] radii = new double[16];
+
+    public VpTree(FeatureMatrix matrix, DistanceMetric metric) {
+        super(matrix);
+        this.squared = metric == DistanceMetric.SQUARED_EUCLIDEAN;
+        if (squared) metric = DistanceMetric.EUCLIDEAN;
+        if (!metric.isTrueMetric()) {
+            throw new IllegalArgumentException("VP-tree needs a true metric, " + metric + " is not one");
+        }
+        this.metricRows = new MetricRows(matrix, metric);
+        this.buildDistances = new double[rows.length];
+        if (rows.length > 0) build(0, rows.length);
+        this.buildDistances = null;
+    }
+
+    @Override
+    protected void onGrow(int capacity) {
+        vantage = Arrays.copyOf(vantage, capacity);
+        radii = Arrays.copyOf(radii, capacity);
+    }
+
+    // rows[from] becomes the vantage point; (from, mid] lie inside the median radius, (mid, to) outside
+    private int build(int from, int to) {
+        int node = newNode(from, to);
+        if (to - from <= LEAF_SIZE) return node;
+
+        swap(from, from + random.nextInt(to - from));
+        int vantageRow = rows[from];
+        for (int i = from + 1; i < to; i++) {
+            buildDistances[i] = metricRows.distanceBetween(vantageRow, rows[i]);
+        }
+        int mid = (from + 1 + to) >>> 1;
+        selectByDistance(from + 1, to, mid);
+
+        vantage[node] = vantageRow;
+        radii[node] = buildDistances[mid];
+        int inside = build(from + 1, mid + 1);
+        int outside = build(mid + 1, to);
+        left[node] = inside;
+        right[node] = outside;
+        return node;
+    }
+
+    @Override
+    public void search(Vector query, NeighbourHeap heap) {
+        if (nodeCount > 0) search(0, metricRows.prepareQuery(query), heap);
+    }
+
+    private void search(int node, Vector point, NeighbourHeap heap) {
+        if (isLeaf(node)) {
+            for (int i = start[node]; i < end[node]; i++) {
+                offer(heap, metricRows.distance(rows[i], point, worstDistance(heap)), rows[i]);
+            }
+            return;
+        }
+
+        // The exact distance is needed for the pruning tests, so the vantage row is never abandoned early
+        double distance = metricRows.distance(vantage[node], point, Double.POSITIVE_INFINITY);
+        offer(heap, distance, vantage[node]);
+
+        double radius = radii[node];
+        if (distance <= radius) {
+            search(left[node], point, heap);
+            if (distance + worstDistance(heap) > radius) search(right[node], point, heap);
+        } else {
+            search(right[node], point, heap);
+            if (distance - worstDistance(heap) <= radius) search(left[node], point, heap);
+        }
+    }
+
+    // The heap holds reported distances; pruning works on the metric itself
+    private double worstDistance(NeighbourHeap heap) {
+        return squared ? Math.sqrt(heap.worstDistance()) : heap.worstDistance();
+    }
+
+    private void offer(NeighbourHeap heap, double distance, int row) {
+        heap.offer(squared ? distance * distance : distance, row);
+    }
+
+    // Quickselect on the precomputed vantage distances, moving rows along with them
+    private void selectByDistance(int from, int to, int nth) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            double pivot = buildDistances[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (buildDistances[i] < pivot) i++;
+                while (buildDistances[j] > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (nth <= j) hi = j;
+            else if (nth >= i) lo = i;
+            else return;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        double distance = buildDistances[a];
+        buildDistances[a] = buildDistances[b];
+        buildDistances[b] = distance;
+    }
+}
@@ -2,22 +2,47 @@ package org.nai.main;
 
 import org.nai.algorithms.Knapsack;
 import org.nai.data.Dataset;
+import org.nai.data.OffHeapDataset;
 import org.nai.data.PrepareDataset;
 import org.nai.data.SplitDataset;
 import org.nai.evaluation.EvaluationMetrics;
+import org.nai.index.BruteForceIndex;
+import org.nai.index.DistanceMetric;
+import org.nai.index.HnswIndex;
+import org.nai.index.IndexType;
+import org.nai.index.NeighbourHeap;
+import org.nai.index.NeighbourIndex;
 import org.nai.models.*;
 import org.nai.plot.KMeansClustersPlotter;
-import org.nai.structures.Cluster;
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.FeatureStorage;
 import org.nai.structures.Pair;
 import org.nai.structures.Vector;
+import org.nai.structures.VectorKernel;
+import org.nai.structures.VectorKernels;
 import org.nai.utils.FeatureEncoder;
 import org.nai.utils.LabelEncoder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
 
 public class Main {
+    private static final String LANGUAGES_DATASET_PATH = "src/main/resources/languagesdataset";
+    // Leaves room for the weight vector when training converges within a few epochs
+    private static final double MAX_TRAINING_BYTES_PER_SAMPLE = 1.0;
+
     public static void main(String[] args) {
         runTests();
     }
@@ -43,6 +68,33 @@ public class Main {
         // Run Algorithms on Vectors
         runAlgorithmsTests(irisDataset.getVectors());
         divider();
+        // Compare reduced-precision KNN storage on iris and on the language texts (not bundled, see RepositoryProcessor)
+// *      runKNNStorageTests(irisSplit, "iris");
+// *      runKNNStorageTests(prepare.trainTestSplit(prepare.parseDataset(LANGUAGES_DATASET_PATH, new LabelEncoder(), null, false, false), 0.66), "languages");
+        divider();
+        // Recall and latency of the approximate HNSW index against an exact scan
+// *      runKNNIndexBenchmarks(prepare.trainTestSplit(prepare.parseDataset(LANGUAGES_DATASET_PATH, new LabelEncoder(), null, false, false), 0.66), "languages");
+// *      runKNNBatchBenchmarks(prepare.trainTestSplit(prepare.parseDataset(LANGUAGES_DATASET_PATH, new LabelEncoder(), null, false, false), 0.66), "languages");
+        divider();
+        // KNN accuracy and speed under each distance metric
+// *      runKNNDistanceMetricTests(prepare.trainTestSplit(prepare.parseDataset(LANGUAGES_DATASET_PATH, new LabelEncoder(), null, false, false), 0.66), "languages");
+        divider();
+        // Perceptron training must not allocate per sample
+        checkPerceptronAllocations(irisSplit.trainSet().getMatrix());
+        divider();
+        // Scalar and SIMD vector kernels must agree; the timing comparison is optional
+        runVectorKernelChecks();
+// *      runVectorKernelBenchmarks();
+        divider();
+        // Added and removed samples must predict exactly like a model retrained on the surviving rows
+        runKNNIncrementalChecks();
+        divider();
+        // Copied and memory-mapped off-heap rows must predict exactly like the heap rows they came from
+        runOffHeapChecks();
+        divider();
+        // Partial fits and merges must predict exactly like Naive Bayes retrained on every row seen
+        runNaiveBayesIncrementalChecks();
+        divider();
 
         // Start interactive input on the split data
         startUserInput(irisSplit, irisEncoder);
@@ -68,6 +120,8 @@ public class Main {
         List<Vector> vectors = dataset.getVectors();
 
         runKMeansClustererTests(vectors);
+        divider();
+        runMiniBatchKMeansClustererTests(vectors, 3);
     }
 
     private static void runAlgorithmsTests(List<Vector> inputVectors) {
@@ -93,38 +147,364 @@ public class Main {
         runKnapsackTests(itemWeights, itemValues, capacity);
     }
 
+    // Fails the run when the SIMD kernel disagrees with the scalar reference beyond rounding
+    private static void runVectorKernelChecks() {
+        System.out.println("Checking the vector kernels\n");
+        System.out.println("Active kernel: " + VectorKernels.get().name());
+        if (!VectorKernels.isSimdAvailable()) {
+            System.out.println("Vector API unavailable (run with --add-modules jdk.incubator.vector), nothing to compare");
+            return;
+        }
+
+        VectorKernel scalar = VectorKernels.scalar();
+        VectorKernel simd = VectorKernels.simd();
+        Random random = new Random(42);
+
+        for (int dims : new int[]{1, 3, 4, 7, 8, 9, 26, 64, 257}) {
+            // Offsets past the start exercise unaligned loads
+            int offset = random.nextInt(3);
+            double[] a = random.doubles(dims + offset, -1, 1).toArray();
+            double[] b = random.doubles(dims + offset, -1, 1).toArray();
+            double[] scalarOut = new double[dims];
+            double[] simdOut = new double[dims];
+
+            double maxError = relativeError(scalar.dot(a, offset, b, offset, dims), simd.dot(a, offset, b, offset, dims));
+            maxError = Math.max(maxError, relativeError(
+                    scalar.squaredDistance(a, offset, b, offset, dims), simd.squaredDistance(a, offset, b, offset, dims)));
+
+            scalar.add(a, b, scalarOut, dims);
+            simd.add(a, b, simdOut, dims);
+            for (int i = 0; i < dims; i++) maxError = Math.max(maxError, relativeError(scalarOut[i], simdOut[i]));
+
+            scalar.scale(a, 0.37, scalarOut, dims);
+            simd.scale(a, 0.37, simdOut, dims);
+            for (int i = 0; i < dims; i++) maxError = Math.max(maxError, relativeError(scalarOut[i], simdOut[i]));
+
+            scalar.axpy(-1.3, a, offset, scalarOut, dims);
+            simd.axpy(-1.3, a, offset, simdOut, dims);
+            for (int i = 0; i < dims; i++) maxError = Math.max(maxError, relativeError(scalarOut[i], simdOut[i]));
+
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment segment = arena.allocate((long) a.length * Double.BYTES, Double.BYTES);
+                MemorySegment.copy(a, 0, segment, ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN), 0, a.length);
+                maxError = Math.max(maxError, relativeError(
+                        scalar.dot(segment, offset, b, dims), simd.dot(segment, offset, b, dims)));
+                maxError = Math.max(maxError, relativeError(
+                        scalar.squaredDistance(segment, offset, b, dims), simd.squaredDistance(segment, offset, b, dims)));
+                scalar.axpy(0.5, segment, offset, scalarOut, dims);
+                simd.axpy(0.5, segment, offset, simdOut, dims);
+                for (int i = 0; i < dims; i++) maxError = Math.max(maxError, relativeError(scalarOut[i], simdOut[i]));
+            }
+
+            if (maxError > 1e-9) {
+                throw new IllegalStateException(String.format("Kernels disagree on %d dims: max relative error %.2e", dims, maxError));
+            }
+            System.out.printf("dims = %3d → max relative error %.2e%n", dims, maxError);
+        }
+    }
+
+    private static void runVectorKernelBenchmarks() {
+        System.out.println("Timing of the vector kernels\n");
+        if (!VectorKernels.isSimdAvailable()) {
+            System.out.println("Vector API unavailable (run with --add-modules jdk.incubator.vector), nothing to compare");
+            return;
+        }
+        VectorKernel scalar = VectorKernels.scalar();
+        VectorKernel simd = VectorKernels.simd();
+        Random random = new Random(42);
+
+        for (int dims : new int[]{26, 256}) {
+            double[] a = random.doubles(dims, -1, 1).toArray();
+            double[] b = random.doubles(dims, -1, 1).toArray();
+            for (VectorKernel kernel : List.of(scalar, simd)) {
+                // First round only warms up the JIT, the second one is reported
+                for (int round = 0; round < 2; round++) {
+                    double sink = 0;
+                    long start = System.nanoTime();
+                    for (int i = 0; i < 2_000_000; i++) {
+                        sink += kernel.squaredDistance(a, 0, b, 0, dims);
+                    }
+                    long time = System.nanoTime() - start;
+                    if (round == 1) {
+                        System.out.printf("%s: 2M squared distances on %d dims in %,dms (checksum %.3f)%n",
+                                kernel.name(), dims, time / 1_000_000, sink);
+                    }
+                }
+            }
+        }
+    }
+
+    private static double relativeError(double expected, double actual) {
+        return Math.abs(expected - actual) / Math.max(1.0, Math.abs(expected));
+    }
+
     private static void divider() {
         System.out.println("\n────────────────────────────────────────────────────────────────────────────────────\n");
     }
 
     private static void runKNNTests(SplitDataset splitDataset) {
         KNearestNeighbours knn = new KNearestNeighbours();
-        EvaluationMetrics evaluationMetrics = new EvaluationMetrics(knn, splitDataset);
+        knn.train(splitDataset.trainSet());
 
         System.out.println("Testing of the KNN algorithm\n");
-        System.out.println("Testcase 1, k=3:");
-        knn.setK(3);
-        evaluationMetrics.measureAccuracy();
+        // A single search at the largest k answers every testcase
+        int[] ks = {3, 7, 11, 15, 20};
+        double[] accuracies = knn.accuracies(splitDataset.testSet(), ks);
+        for (int i = 0; i < ks.length; i++) {
+            System.out.printf("Testcase %d, k=%d:%n", i + 1, ks[i]);
+            System.out.printf("Evaluated accuracy is: %.2f%%%n", accuracies[i] * 100);
+            if (i < ks.length - 1) System.out.println();
+        }
+    }
+
+    private static void runKNNStorageTests(SplitDataset splitDataset, String datasetName) {
+        System.out.println("Testing of the KNN feature storage modes on " + datasetName + "\n");
+
+        FeatureMatrix trainMatrix = splitDataset.trainSet().getMatrix();
+        List<Pair<FeatureStorage, Integer>> modes = List.of(
+                new Pair<>(FeatureStorage.FLOAT64, 0),
+                new Pair<>(FeatureStorage.FLOAT32, 0),
+                new Pair<>(FeatureStorage.INT8, 0),
+                new Pair<>(FeatureStorage.INT8, 20)
+        );
+
+        double baseline = 0;
+        for (Pair<FeatureStorage, Integer> mode : modes) {
+            long featureBytes = (long) trainMatrix.rows() * trainMatrix.columns() * mode.first().bytesPerValue();
+            System.out.printf("%s, re-rank %d, %,d feature bytes:%n", mode.first(), mode.second(), featureBytes);
+
+            KNearestNeighbours knn = new KNearestNeighbours();
+            knn.setStorage(mode.first(), mode.second());
+
+            long start = System.nanoTime();
+            EvaluationMetrics evaluationMetrics = new EvaluationMetrics(knn, splitDataset);
+            double accuracy = evaluationMetrics.measureAccuracy();
+            long time = System.nanoTime() - start;
+
+            if (mode == modes.getFirst()) baseline = accuracy;
+            System.out.printf("Accuracy delta vs FLOAT64: %+.2f pp, time=%,dms%n%n", (accuracy - baseline) * 100, time / 1_000_000);
+        }
+    }
+
+    private static void runKNNIndexBenchmarks(SplitDataset splitDataset, String datasetName) {
+        System.out.println("Recall and latency of the HNSW index on " + datasetName + "\n");
+        int k = 10;
+        FeatureMatrix trainMatrix = splitDataset.trainSet().getMatrix();
+        List<Vector> queries = splitDataset.testSet().getVectors();
+
+        NeighbourIndex exact = new BruteForceIndex(trainMatrix);
+        List<int[]> truth = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Vector query : queries) {
+            NeighbourHeap heap = new NeighbourHeap(k);
+            exact.search(query, heap);
+            truth.add(heap.ids());
+        }
+        System.out.printf("Brute force: %,.1fus/query%n", (System.nanoTime() - start) / 1_000.0 / queries.size());
+
+        start = System.nanoTime();
+        HnswIndex hnsw = new HnswIndex(trainMatrix, HnswIndex.Parameters.DEFAULT);
+        System.out.printf("HNSW build: %,dms for %,d rows%n", (System.nanoTime() - start) / 1_000_000, trainMatrix.rows());
+
+        NeighbourHeap heap = new NeighbourHeap(k);
+        for (int efSearch : new int[]{10, 20, 50, 100, 200}) {
+            hnsw.setEfSearch(efSearch);
+            int found = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queries.size(); q++) {
+                heap.reset(k);
+                hnsw.search(queries.get(q), heap);
+                int[] expected = truth.get(q);
+                for (int i = 0; i < heap.size(); i++) {
+                    for (int id : expected) {
+                        if (id == heap.id(i)) found++;
+                    }
+                }
+            }
+            long time = System.nanoTime() - start;
+            System.out.printf("efSearch=%d: recall@%d=%.3f, %,.1fus/query%n",
+                    efSearch, k, (double) found / ((long) queries.size() * k), time / 1_000.0 / queries.size());
+        }
         System.out.println();
+    }
 
-        System.out.println("Testcase 2, k=7:");
-        knn.setK(7);
-        evaluationMetrics.measureAccuracy();
+    private static void runKNNBatchBenchmarks(SplitDataset splitDataset, String datasetName) {
+        System.out.println("Row-by-row vs blocked batch KNN on " + datasetName + "\n");
+        KNearestNeighbours knn = new KNearestNeighbours();
+        knn.setIndexType(IndexType.BRUTE_FORCE);
+        knn.train(splitDataset.trainSet());
+        Dataset testSet = splitDataset.testSet();
+        List<Vector> queries = testSet.getVectors();
+
+        // One warm-up round of each path, then the timed round
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int[] single = new int[queries.size()];
+            for (int i = 0; i < single.length; i++) {
+                single[i] = knn.predict(queries.get(i));
+            }
+            long singleTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int[] batch = knn.predictBatch(testSet);
+            long batchTime = System.nanoTime() - start;
+
+            int agree = 0;
+            for (int i = 0; i < batch.length; i++) {
+                if (batch[i] == single[i]) agree++;
+            }
+            if (round == 1) {
+                System.out.printf("Row-by-row: %,dms, blocked batch: %,dms (%.1fx), agreement %d/%d%n%n",
+                        singleTime / 1_000_000, batchTime / 1_000_000, (double) singleTime / batchTime, agree, batch.length);
+            }
+        }
+    }
+
+    private static void runKNNDistanceMetricTests(SplitDataset splitDataset, String datasetName) {
+        System.out.println("Testing of the KNN distance metrics on " + datasetName + "\n");
+        int[] ks = {3, 7, 11};
+        for (DistanceMetric metric : DistanceMetric.values()) {
+            KNearestNeighbours knn = new KNearestNeighbours();
+            knn.setDistanceMetric(metric);
+
+            long start = System.nanoTime();
+            knn.train(splitDataset.trainSet());
+            double[] accuracies = knn.accuracies(splitDataset.testSet(), ks);
+            long time = System.nanoTime() - start;
+
+            StringBuilder line = new StringBuilder(metric + ":");
+            for (int i = 0; i < ks.length; i++) {
+                line.append(String.format(" k=%d %.2f%%", ks[i], accuracies[i] * 100));
+            }
+            System.out.printf("%s, time=%,dms%n", line, time / 1_000_000);
+        }
         System.out.println();
+    }
 
-        System.out.println("Testcase 3, k=11:");
-        knn.setK(11);
-        evaluationMetrics.measureAccuracy();
+    private static void runKNNIncrementalChecks() {
+        System.out.println("Checking incremental KNN updates against retraining\n");
+        Random random = new Random(7);
+        int columns = 6;
+        int initialRows = 500;
+        int totalRows = 2000;
+        List<Vector> vectors = new ArrayList<>();
+        int[] labels = new int[totalRows];
+        for (int i = 0; i < totalRows; i++) {
+            vectors.add(Vector.wrap(random.doubles(columns, -1, 1).toArray()));
+            labels[i] = random.nextInt(4);
+        }
+        List<Vector> queries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) queries.add(Vector.wrap(random.doubles(columns, -1, 1).toArray()));
+
+        for (IndexType indexType : List.of(IndexType.BRUTE_FORCE, IndexType.KD_TREE, IndexType.BALL_TREE, IndexType.VP_TREE)) {
+            Dataset initial = new Dataset();
+            for (int i = 0; i < initialRows; i++) initial.add(labels[i], vectors.get(i));
+            KNearestNeighbours knn = new KNearestNeighbours();
+            knn.setK(1);
+            knn.setIndexType(indexType);
+            knn.train(initial);
+            // Setters only take effect on the next train(), so segments sealed by add() must ignore these
+            knn.setDistanceMetric(DistanceMetric.COSINE);
+            knn.setIndexType(IndexType.HNSW);
+
+            // Enough rows to seal a segment and leave a tail, then tombstones short of the compaction threshold
+            boolean[] live = new boolean[totalRows];
+            Arrays.fill(live, true);
+            for (int i = initialRows; i < totalRows; i++) knn.add(labels[i], vectors.get(i));
+            checkAgainstRetrained(knn, vectors, labels, live, queries, indexType + " after add");
+            for (int i = 0; i < totalRows; i += 7) {
+                knn.remove(i);
+                live[i] = false;
+            }
+            checkAgainstRetrained(knn, vectors, labels, live, queries, indexType + " after remove");
+        }
         System.out.println();
+    }
 
-        System.out.println("Testcase 4, k=15:");
-        knn.setK(15);
-        evaluationMetrics.measureAccuracy();
+    private static void checkAgainstRetrained(KNearestNeighbours knn, List<Vector> vectors, int[] labels, boolean[] live,
+                                              List<Vector> queries, String description) {
+        Dataset surviving = new Dataset();
+        for (int i = 0; i < vectors.size(); i++) {
+            if (live[i]) surviving.add(labels[i], vectors.get(i));
+        }
+        KNearestNeighbours retrained = new KNearestNeighbours();
+        retrained.setK(1);
+        retrained.setIndexType(IndexType.BRUTE_FORCE);
+        retrained.train(surviving);
+
+        int mismatches = 0;
+        for (Vector query : queries) {
+            if (knn.predict(query) != retrained.predict(query)) mismatches++;
+        }
+        if (mismatches > 0) {
+            throw new IllegalStateException(description + ": " + mismatches + "/" + queries.size() + " predictions differ from retraining");
+        }
+        System.out.println(description + ": " + queries.size() + " predictions match retraining");
+    }
+
+    private static void runOffHeapChecks() {
+        System.out.println("Checking off-heap datasets against the heap dataset\n");
+        Random random = new Random(11);
+        int columns = 6;
+        Dataset heap = new Dataset();
+        for (int i = 0; i < 2000; i++) heap.add(random.nextInt(4), Vector.wrap(random.doubles(columns, -1, 1).toArray()));
+        Dataset queries = new Dataset();
+        for (int i = 0; i < 1000; i++) queries.add(0, Vector.wrap(random.doubles(columns, -1, 1).toArray()));
+
+        // Batches over a plain scan take the blocked engine, the rest search per query through the index
+        List<Pair<IndexType, DistanceMetric>> configurations = List.of(
+                new Pair<>(IndexType.BRUTE_FORCE, DistanceMetric.SQUARED_EUCLIDEAN),
+                new Pair<>(IndexType.KD_TREE, DistanceMetric.SQUARED_EUCLIDEAN),
+                new Pair<>(IndexType.VP_TREE, DistanceMetric.MANHATTAN),
+                new Pair<>(IndexType.BRUTE_FORCE, DistanceMetric.COSINE));
+
+        Path file;
+        try {
+            file = Files.createTempFile("nai-offheap", ".bin");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (OffHeapDataset copied = OffHeapDataset.copyOf(heap)) {
+            OffHeapDataset.write(heap, file);
+            try (OffHeapDataset mapped = OffHeapDataset.map(file)) {
+                for (Pair<IndexType, DistanceMetric> configuration : configurations) {
+                    String description = configuration.first() + "/" + configuration.second();
+                    checkAgainstHeap(heap, copied, queries, configuration, description + " copied");
+                    checkAgainstHeap(heap, mapped, queries, configuration, description + " mapped");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            file.toFile().delete();
+        }
         System.out.println();
+    }
 
-        System.out.println("Testcase 5, k=20:");
-        knn.setK(20);
-        evaluationMetrics.measureAccuracy();
+    private static void checkAgainstHeap(Dataset heap, Dataset offHeap, Dataset queries,
+                                         Pair<IndexType, DistanceMetric> configuration, String description) {
+        KNearestNeighbours expected = new KNearestNeighbours();
+        KNearestNeighbours actual = new KNearestNeighbours();
+        for (KNearestNeighbours knn : List.of(expected, actual)) {
+            knn.setK(1);
+            knn.setIndexType(configuration.first());
+            knn.setDistanceMetric(configuration.second());
+        }
+        expected.train(heap);
+        actual.train(offHeap);
+
+        int[] expectedBatch = expected.predictBatch(queries);
+        int[] actualBatch = actual.predictBatch(queries);
+        List<Vector> vectors = queries.getVectors();
+        int mismatches = 0;
+        for (int i = 0; i < vectors.size(); i++) {
+            if (expectedBatch[i] != actualBatch[i]) mismatches++;
+            if (expected.predict(vectors.get(i)) != actual.predict(vectors.get(i))) mismatches++;
+        }
+        if (mismatches > 0) {
+            throw new IllegalStateException(description + ": " + mismatches + " predictions differ from the heap dataset");
+        }
+        System.out.println(description + ": " + vectors.size() + " queries match the heap dataset");
     }
 
     private static void runPerceptronTests(SplitDataset splitDataset, int classesAmount) {
@@ -134,6 +514,31 @@ public class Main {
         outputClassifierEvaluations(evaluationMetrics, classesAmount);
     }
 
+    // The training loop reads rows in place and updates the weights in place, so once the JIT has compiled it
+    // the only allocation left is the weight vector itself; anything per sample means something is copied or boxed.
+    // C2 needs several runs to compile the vector kernels, so runs repeat until one stays under the bound
+    private static void checkPerceptronAllocations(FeatureMatrix matrix) {
+        double bytesPerSample = Double.MAX_VALUE;
+        for (int run = 0; run < 50 && bytesPerSample > MAX_TRAINING_BYTES_PER_SAMPLE; run++) {
+            Perceptron perceptron = new Perceptron(0.2);
+            long allocatedBefore = currentThreadAllocatedBytes();
+            perceptron.train(matrix, 1);
+            long allocated = currentThreadAllocatedBytes() - allocatedBefore;
+            long samplesSeen = (long) matrix.rows() * (perceptron.getEpochs() + 1);
+            bytesPerSample = Math.min(bytesPerSample, (double) allocated / samplesSeen);
+        }
+
+        System.out.printf("Perceptron training allocates %.3f bytes/sample after warm-up%n", bytesPerSample);
+        if (bytesPerSample > MAX_TRAINING_BYTES_PER_SAMPLE) {
+            throw new IllegalStateException(String.format("Perceptron training allocates %.3f bytes/sample, expected at most %.1f",
+                    bytesPerSample, MAX_TRAINING_BYTES_PER_SAMPLE));
+        }
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
     private static void runSingleLayerNeuralNetworkTests(SplitDataset splitDataset, int classesAmount) {
         System.out.println("Testing of the Single Layer Neural Network algorithm\n");
         SingleLayerNeuralNetwork singleLayerNeuralNetwork = new SingleLayerNeuralNetwork(0.01, classesAmount);
@@ -146,6 +551,73 @@ public class Main {
         NaiveBayes naiveBayes = new NaiveBayes(classesAmount, true);
         EvaluationMetrics evaluationMetrics = new EvaluationMetrics(naiveBayes, splitDataset);
         outputClassifierEvaluations(evaluationMetrics, classesAmount);
+        // Continuous features fit a normal distribution per class instead of one category per distinct value
+        System.out.println("\nGaussian Naive Bayes:");
+        NaiveBayes gaussianBayes = new NaiveBayes(classesAmount, true, NaiveBayes.Distribution.GAUSSIAN);
+        outputClassifierEvaluations(new EvaluationMetrics(gaussianBayes, splitDataset), classesAmount);
+    }
+
+    private static void runNaiveBayesIncrementalChecks() {
+        System.out.println("Checking incremental Naive Bayes training against retraining\n");
+        Random random = new Random(5);
+        int classes = 4;
+        int columns = 5;
+        List<Pair<Integer, Vector>> rows = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int label = random.nextInt(classes);
+            double[] values = new double[columns];
+            // Later rows reach values the first shard never saw, so the dictionaries grow between fits
+            int range = i < 1000 ? 4 : 6;
+            for (int column = 0; column < columns; column++) {
+                values[column] = (random.nextInt(range) + (column == label ? 1 : 0)) % range;
+            }
+            rows.add(new Pair<>(label, Vector.wrap(values)));
+        }
+        List<Vector> queries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double[] values = new double[columns];
+            for (int column = 0; column < columns; column++) values[column] = random.nextInt(7);
+            queries.add(Vector.wrap(values));
+        }
+
+        // Each step predicts before the next one, so the compiled tables of the untouched class are reused
+        NaiveBayes incremental = new NaiveBayes(classes, true);
+        List<Pair<Integer, Vector>> seen = new ArrayList<>(rows.subList(0, 1000));
+        incremental.partialFit(new Dataset(seen));
+        checkAgainstRetrained(incremental, seen, classes, queries, "after the first shard");
+
+        List<Pair<Integer, Vector>> withoutClass2 = rows.subList(1000, 2000).stream()
+                .filter(row -> row.first() != 2)
+                .toList();
+        incremental.partialFit(new Dataset(withoutClass2));
+        seen.addAll(withoutClass2);
+        checkAgainstRetrained(incremental, seen, classes, queries, "after partialFit without class 2");
+
+        List<Pair<Integer, Vector>> withoutClass0 = rows.subList(2000, 3000).stream()
+                .filter(row -> row.first() != 0)
+                .toList();
+        NaiveBayes other = new NaiveBayes(classes, true);
+        other.partialFit(new Dataset(withoutClass0));
+        incremental.merge(other);
+        seen.addAll(withoutClass0);
+        checkAgainstRetrained(incremental, seen, classes, queries, "after merge without class 0");
+        System.out.println();
+    }
+
+    private static void checkAgainstRetrained(NaiveBayes incremental, List<Pair<Integer, Vector>> seen, int classes,
+                                              List<Vector> queries, String description) {
+        NaiveBayes retrained = new NaiveBayes(classes, true);
+        retrained.train(new Dataset(seen));
+
+        int mismatches = 0;
+        for (Vector query : queries) {
+            if (incremental.predict(query) != retrained.predict(query)) mismatches++;
+        }
+        if (mismatches > 0) {
+            throw new IllegalStateException("Naive Bayes " + description + ": " + mismatches + "/" + queries.size()
+                    + " predictions differ from retraining");
+        }
+        System.out.println("Naive Bayes " + description + ": " + queries.size() + " predictions match retraining");
     }
 
     private static void runKnapsackTests(Vector itemWeights, Vector itemValues, double capacity) {
@@ -189,45 +661,53 @@ public class Main {
                 timeBrute / 1_000);
     }
 
-    private static void runKMeansClustererTests(List<Vector> vectors) {
-        System.out.println("Testing of the K-Means Clustering algorithm\n");
+    private static void runMiniBatchKMeansClustererTests(List<Vector> vectors, int k) {
+        System.out.println("Testing of the Mini-Batch K-Means Clustering algorithm\n");
 
-        KMeansClusterer kMeansClusterer = new KMeansClusterer();
-
-        double bestWcss = 0;
-        double bestWcssDiff = Double.MIN_VALUE;
-        double prevWcss = Double.MIN_VALUE;
-        List<Cluster> bestClusters = null;
-        int bestK = 2;
+        long start = System.nanoTime();
+        double fullWcss = EvaluationMetrics.computeWCSS(new KMeansClusterer().cluster(k, vectors));
+        long fullTime = System.nanoTime() - start;
 
-        List<Pair<Integer, Double>> kToWcss = new ArrayList<>();
+        start = System.nanoTime();
+        double miniBatchWcss = EvaluationMetrics.computeWCSS(new MiniBatchKMeansClusterer(k, 32).cluster(k, vectors));
+        long miniBatchTime = System.nanoTime() - start;
 
-        for (int k = 2; k <= 15; k++) {
-            List<Cluster> clusters = kMeansClusterer.groupClusters(k, vectors);
-            double wcss = EvaluationMetrics.computeWCSS(clusters);
+        System.out.printf("Full k-means: WCSS = %.4f, time=%,dus%n", fullWcss, fullTime / 1_000);
+        System.out.printf("Mini-batch:   WCSS = %.4f, time=%,dus%n", miniBatchWcss, miniBatchTime / 1_000);
 
-            System.out.printf("k = %d → WCSS = %.4f%n", k, wcss);
+        // The streaming API only ever holds one batch: feed the data through twice as if it arrived over time
+        MiniBatchKMeansClusterer streaming = new MiniBatchKMeansClusterer(k, 32);
+        for (int pass = 0; pass < 2; pass++) {
+            streaming.fit(vectors.stream());
+        }
+        System.out.println("Streamed centroids:");
+        streaming.getCentroids().forEach(centroid -> System.out.println("  " + centroid.coordinates()));
+    }
 
-            kToWcss.add(new Pair<>(k, wcss));
+    private static void runKMeansClustererTests(List<Vector> vectors) {
+        System.out.println("Testing of the K-Means Clustering algorithm\n");
 
-            double wcssDiff = prevWcss - wcss;
-            if (wcssDiff > bestWcssDiff) {
-                bestWcssDiff = wcssDiff;
-                bestClusters = clusters;
-                bestWcss = wcss;
-                bestK = k;
-            }
+        KMeansClusterer kMeansClusterer = new KMeansClusterer();
 
-            prevWcss = wcss;
+        // k = 2..15 evaluated concurrently on one packed copy of the vectors
+        long start = System.nanoTime();
+        ElbowSweep sweep = kMeansClusterer.sweep(vectors, 2, 15, false);
+        long coldNanos = System.nanoTime() - start;
+        for (Pair<Integer, Double> point : sweep.curve()) {
+            System.out.printf("k = %d → WCSS = %.4f%n", point.first(), point.second());
         }
 
-        System.out.printf("%nBest clustering found at k = %d with WCSS = %.4f%n", bestK, bestWcss);
+        // Each k + 1 starts from the k solution with its worst cluster split
+        start = System.nanoTime();
+        ElbowSweep warmSweep = kMeansClusterer.sweep(vectors, 2, 15, true);
+        long warmNanos = System.nanoTime() - start;
+        System.out.printf("%nSweep took %.1f ms cold, %.1f ms warm-started (elbow at k = %d)%n",
+                coldNanos / 1e6, warmNanos / 1e6, warmSweep.bestK());
 
-        KMeansClustersPlotter.plotWCSS(kToWcss);
+        System.out.printf("%nBest clustering found at k = %d with WCSS = %.4f%n", sweep.bestK(), sweep.bestWcss());
 
-        if (bestClusters != null) {
-            KMeansClustersPlotter.plotClusters(bestClusters);
-        }
+        KMeansClustersPlotter.plotWCSS(sweep.curve());
+        KMeansClustersPlotter.plotClusters(sweep.best());
     }
 
     private static void outputClassifierEvaluations(EvaluationMetrics evaluationMetrics, int classesAmount) {
@@ -308,6 +788,6 @@ public class Main {
         String[] tokens = sc.nextLine().split(",");
         double[] f = new double[tokens.length];
         for (int i = 0; i < tokens.length; i++) f[i] = Double.parseDouble(tokens[i].trim());
-        return new Vector(f);
+        return Vector.wrap(f);
     }
 }
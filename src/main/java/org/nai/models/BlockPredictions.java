@@ -0,0 +1,27 @@
+package org.nai.models;
+
+import java.util.stream.IntStream;
+
+// Splits a batch into fixed-size blocks scored in parallel; each block writes only its own slice of the result
+final class BlockPredictions {
+    static final int BLOCK_SIZE = 256;
+
+    private BlockPredictions() {}
+
+    static int[] predict(int rows, BlockPredictor predictor) {
+        int[] predictions = new int[rows];
+        int blocks = (rows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        IntStream.range(0, blocks)
+                .parallel()
+                .forEach(block -> {
+                    int from = block * BLOCK_SIZE;
+                    predictor.predict(from, Math.min(from + BLOCK_SIZE, rows), predictions);
+                });
+        return predictions;
+    }
+
+    @FunctionalInterface
+    interface BlockPredictor {
+        void predict(int from, int to, int[] predictions);
+    }
+}
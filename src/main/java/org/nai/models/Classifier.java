@@ -1,9 +1,28 @@
 package org.nai.models;
 
 import org.nai.data.Dataset;
+import org.nai.structures.FeatureMatrix;
 import org.nai.structures.Vector;
 
+import java.util.List;
+import java.util.stream.IntStream;
+
 public interface Classifier extends Model {
     void train(Dataset trainSet);
     int predict(Vector input);
+
+    // Fans the rows out over the common fork-join pool; predict() must be safe to call concurrently
+    default int[] predictBatch(Dataset dataset) {
+        FeatureMatrix matrix = dataset.getMatrix();
+        return IntStream.range(0, matrix.rows())
+                .parallel()
+                .map(row -> predict(matrix.row(row)))
+                .toArray();
+    }
+
+    default int[] predictBatch(List<Vector> vectors) {
+        return vectors.parallelStream()
+                .mapToInt(this::predict)
+                .toArray();
+    }
 }
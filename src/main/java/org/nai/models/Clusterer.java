@@ -3,8 +3,13 @@ package org.nai.models;
 import java.util.List;
 
 import org.nai.structures.Cluster;
+import org.nai.structures.ClusteringResult;
 import org.nai.structures.Vector;
 
 public interface Clusterer extends Model {
-    List<Cluster> groupClusters(int k, List<Vector> vectors);
+    ClusteringResult cluster(int k, List<Vector> vectors);
+
+    default List<Cluster> groupClusters(int k, List<Vector> vectors) {
+        return cluster(k, vectors).toClusters();
+    }
 }
@@ -0,0 +1,66 @@
+package org.nai.models;
+
+import org.nai.structures.ClusteringResult;
+import org.nai.structures.Pair;
+
+import java.util.List;
+
+// WCSS per k from KMeansClusterer.sweep, the chosen elbow and the clustering found for every k
+public record ElbowSweep(List<Pair<Integer, Double>> curve, int bestK, List<ClusteringResult> results) {
+
+    public ElbowSweep {
+        curve = List.copyOf(curve);
+        results = List.copyOf(results);
+    }
+
+    public ClusteringResult result(int k) {
+        return results.get(indexOf(k));
+    }
+
+    public double wcss(int k) {
+        return curve.get(indexOf(k)).second();
+    }
+
+    public ClusteringResult best() {
+        return result(bestK);
+    }
+
+    public double bestWcss() {
+        return wcss(bestK);
+    }
+
+    // The elbow is the point farthest from the chord joining the curve's ends, with k and log WCSS both scaled to
+    // [0, 1]; on a linear scale the first big drops dwarf the rest and the pick lands before the real bend
+    public static int elbowOf(List<Pair<Integer, Double>> curve) {
+        if (curve.size() < 3) return curve.getFirst().first();
+
+        double firstK = curve.getFirst().first();
+        double lastK = curve.getLast().first();
+        double firstWcss = Math.log1p(curve.getFirst().second());
+        double lastWcss = Math.log1p(curve.getLast().second());
+        double wcssRange = Math.max(Math.abs(firstWcss - lastWcss), Double.MIN_VALUE);
+
+        int best = curve.getFirst().first();
+        double bestDistance = -1;
+        for (Pair<Integer, Double> point : curve) {
+            double x = (point.first() - firstK) / (lastK - firstK);
+            double y = (Math.log1p(point.second()) - lastWcss) / wcssRange;
+            // Chord runs from (0, 1) to (1, 0); distance up to the constant 1/sqrt(2) factor
+            double distance = Math.abs(x + y - 1);
+            if (distance > bestDistance) {
+                bestDistance = distance;
+                best = point.first();
+            }
+        }
+        return best;
+    }
+
+    // Helper
+
+    // The curve holds one point per k, starting at the sweep's minimum k
+    private int indexOf(int k) {
+        int index = k - curve.getFirst().first();
+        if (index < 0 || index >= curve.size()) throw new IndexOutOfBoundsException("k outside the sweep: " + k);
+        return index;
+    }
+}
@@ -1,78 +1,393 @@
 package org.nai.models;
 
-import org.nai.evaluation.EvaluationMetrics;
-import org.nai.structures.Cluster;
+import org.nai.structures.ClusteringResult;
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.Pair;
 import org.nai.structures.Vector;
+import org.nai.structures.VectorKernel;
+import org.nai.structures.VectorKernels;
 
-import java.util.List;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
 
+// Lloyd's k-means with k-means++ seeding and Hamerly's bounds: every point keeps an upper bound on the distance to
+// its centre and a lower bound on the distance to any other centre, so most points skip the full k-way scan.
 public class KMeansClusterer implements Clusterer {
+    public static final int DEFAULT_MAX_ITERATIONS = 300;
+    // Points per parallel task; small enough to balance, large enough to amortise the task overhead
+    private static final int CHUNK_SIZE = 2048;
+
+    private final Random random = new Random();
+    private final int maxIterations;
+    private final double movedTolerance;
     private int k;
-    @Override
-    public List<Cluster> groupClusters(int k, List<Vector> vectors) {
-        this.k = k;
+    private List<IterationStats> iterationStats = List.of();
 
-        List<Cluster> clusters = initClusters(vectors);
+    // wcss is measured against the centres as updated at the end of the pass
+    public record IterationStats(int iteration, double wcss, int moved, long nanos) {}
 
-        double prevRSS = Double.MAX_VALUE;
-        double currRSS = EvaluationMetrics.computeWCSS(clusters);
+    public KMeansClusterer() {
+        this(DEFAULT_MAX_ITERATIONS, 0);
+    }
+
+    public KMeansClusterer(int maxIterations) {
+        this(maxIterations, 0);
+    }
 
-        while (Math.abs(prevRSS - currRSS) > 1e-6) {
-            assignObservations(clusters, vectors);
-            recalculateCentroids(clusters);
-            prevRSS = currRSS;
-            currRSS = EvaluationMetrics.computeWCSS(clusters);
+    // Stops once a pass reassigns at most movedTolerance of the points; 0 runs until no point moves
+    public KMeansClusterer(int maxIterations, double movedTolerance) {
+        if (maxIterations < 1) throw new IllegalArgumentException("maxIterations must be positive");
+        if (movedTolerance < 0 || movedTolerance >= 1) {
+            throw new IllegalArgumentException("movedTolerance must be in [0, 1), got " + movedTolerance);
         }
+        this.maxIterations = maxIterations;
+        this.movedTolerance = movedTolerance;
+    }
 
-        return clusters;
+    @Override
+    public ClusteringResult cluster(int k, List<Vector> vectors) {
+        if (k < 1 || k > vectors.size()) {
+            throw new IllegalArgumentException("k must be between 1 and the number of vectors, got " + k);
+        }
+        // Dataset views build rows on access, so materialise them once rather than on every pass
+        vectors = List.copyOf(vectors);
+        Points data = Points.of(vectors);
+        return toResult(vectors, data, solve(data, k, null));
     }
 
-    private List<Cluster> initClusters(List<Vector> vectors) {
-        List<Vector> shuffled = new ArrayList<>(vectors);
-        Collections.shuffle(shuffled);
+    // Clusters the vectors for every k in [minK, maxK] and picks the elbow of the WCSS curve. Cold runs are
+    // independent and share one packed copy of the data, so they run concurrently; with warmStart each k + 1
+    // starts instead from the k solution plus a centre splitting off its worst cluster.
+    public ElbowSweep sweep(List<Vector> vectors, int minK, int maxK, boolean warmStart) {
+        if (minK < 1 || maxK < minK || maxK > vectors.size()) {
+            throw new IllegalArgumentException("Need 1 <= minK <= maxK <= number of vectors, got " + minK + ".." + maxK);
+        }
+        vectors = List.copyOf(vectors);
+        Points data = Points.of(vectors);
 
-        List<Cluster> clusters = new ArrayList<>();
+        List<Solution> solutions;
+        if (warmStart) {
+            solutions = new ArrayList<>();
+            Solution previous = solve(data, minK, null);
+            solutions.add(previous);
+            for (int k = minK + 1; k <= maxK; k++) {
+                previous = solve(data, k, splitWorstCluster(data, previous));
+                solutions.add(previous);
+            }
+        } else {
+            // One clusterer per k, each with its own k, statistics and random source
+            solutions = IntStream.rangeClosed(minK, maxK)
+                    .parallel()
+                    .mapToObj(k -> new KMeansClusterer(maxIterations, movedTolerance).solve(data, k, null))
+                    .toList();
+        }
 
-        for (int i = 0; i < k; i++) {
-            clusters.add(new Cluster(null, new ArrayList<>()));
+        // Every result shares the one copy of the vectors, so each k only adds its assignment and centroids
+        List<Pair<Integer, Double>> curve = new ArrayList<>();
+        List<ClusteringResult> results = new ArrayList<>();
+        for (Solution solution : solutions) {
+            curve.add(new Pair<>(solution.k(), solution.stats().getLast().wcss()));
+            results.add(toResult(vectors, data, solution));
         }
+        int bestK = ElbowSweep.elbowOf(curve);
+        this.k = bestK;
+        iterationStats = solutions.get(bestK - minK).stats();
+        return new ElbowSweep(curve, bestK, results);
+    }
+
+    // Passes made by the last cluster call, capped by maxIterations
+    public int getIterations() {
+        return iterationStats.size();
+    }
 
-        for (int i = 0; i < vectors.size(); i++) {
-            clusters.get(i % k).addMember(vectors.get(i));
+    public List<IterationStats> getIterationStats() {
+        return iterationStats;
+    }
+
+    // WCSS of the last cluster result
+    public double getWcss() {
+        if (iterationStats.isEmpty()) throw new IllegalStateException("No clustering has been run yet");
+        return iterationStats.getLast().wcss();
+    }
+
+    // Runs Lloyd's passes for k centres over the packed points, from k-means++ seeds unless centres are given
+    private Solution solve(Points data, int k, double[] initialCenters) {
+        this.k = k;
+        int n = data.n();
+        int d = data.d();
+        double[] points = data.values();
+
+        double[] centers = initialCenters != null ? initialCenters : seedCenters(points, n, d);
+        int[] assignment = new int[n];
+        double[] upper = new double[n];
+        double[] lower = new double[n];
+        double[] movement = new double[k];
+        List<IterationStats> stats = new ArrayList<>();
+
+        int moved = n;
+        while (stats.size() < maxIterations && (stats.isEmpty() || moved > movedTolerance * n)) {
+            long start = System.nanoTime();
+            Accumulator totals = assignObservations(points, n, d, centers, assignment, upper, lower,
+                    stats.isEmpty() ? null : movement);
+            double wcss = moveCenters(totals, centers, d, movement, data.squaredNorms());
+            moved = totals.moved;
+            stats.add(new IterationStats(stats.size() + 1, wcss, moved, System.nanoTime() - start));
         }
+        iterationStats = List.copyOf(stats);
+        return new Solution(k, centers, assignment, iterationStats);
+    }
 
-        recalculateCentroids(clusters);
+    // Centres of the k solution plus one more: the point farthest from its centre in the cluster with the
+    // largest squared error
+    private static double[] splitWorstCluster(Points data, Solution solution) {
+        VectorKernel kernel = VectorKernels.get();
+        int d = data.d();
+        int k = solution.k();
+        double[] clusterWcss = new double[k];
+        double[] farthestDistance = new double[k];
+        int[] farthest = new int[k];
+        for (int i = 0; i < data.n(); i++) {
+            int cluster = solution.assignment()[i];
+            double distance = kernel.squaredDistance(data.values(), i * d, solution.centers(), cluster * d, d);
+            clusterWcss[cluster] += distance;
+            if (distance > farthestDistance[cluster]) {
+                farthestDistance[cluster] = distance;
+                farthest[cluster] = i;
+            }
+        }
 
-        return clusters;
+        int worst = 0;
+        for (int j = 1; j < k; j++) {
+            if (clusterWcss[j] > clusterWcss[worst]) worst = j;
+        }
+        double[] centers = Arrays.copyOf(solution.centers(), (k + 1) * d);
+        System.arraycopy(data.values(), farthest[worst] * d, centers, k * d, d);
+        return centers;
     }
 
-    private void assignObservations(List<Cluster> clusters, List<Vector> vectors) {
-        clusters.forEach(cluster -> cluster.getMembers().clear());
+    // k-means++: after a uniform first pick, each centre is drawn with probability proportional to the squared
+    // distance to the nearest centre chosen so far, which spreads the seeds over the data
+    private double[] seedCenters(double[] points, int n, int d) {
+        VectorKernel kernel = VectorKernels.get();
+        double[] centers = new double[k * d];
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+
+        int pick = random.nextInt(n);
+        for (int j = 0; j < k; j++) {
+            System.arraycopy(points, pick * d, centers, j * d, d);
+            if (j == k - 1) break;
 
-        for (Vector vector : vectors) {
-            Cluster bestCluster = findClosestCluster(vector, clusters);
-            bestCluster.addMember(vector);
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                nearest[i] = Math.min(nearest[i], kernel.squaredDistance(points, i * d, centers, j * d, d));
+                total += nearest[i];
+            }
+
+            // Only duplicates of the chosen centres are left, any point will do
+            if (total == 0) {
+                pick = random.nextInt(n);
+                continue;
+            }
+            double target = random.nextDouble() * total;
+            pick = n - 1;
+            for (int i = 0; i < n; i++) {
+                target -= nearest[i];
+                if (target < 0) {
+                    pick = i;
+                    break;
+                }
+            }
         }
+        return centers;
     }
 
-    private void recalculateCentroids(List<Cluster> clusters) {
-        clusters.forEach(Cluster::recalculateCentroid);
+    // One parallel pass: loosens each point's bounds by the last centre movement, reassigns it if the bounds no
+    // longer prove its centre nearest, and adds it to its worker's per-cluster sums. movement == null means the
+    // first pass, where every point is scanned against every centre.
+    private Accumulator assignObservations(double[] points, int n, int d, double[] centers, int[] assignment,
+                                           double[] upper, double[] lower, double[] movement) {
+        double[] halfGap = movement != null ? halfDistancesToNearestCenter(centers, d) : null;
+        MovementBounds moved = movement != null ? MovementBounds.of(movement) : null;
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        return IntStream.range(0, chunks)
+                .parallel()
+                .collect(() -> new Accumulator(k, d), (accumulator, chunk) -> {
+                    VectorKernel kernel = VectorKernels.get();
+                    int to = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+                    for (int i = chunk * CHUNK_SIZE; i < to; i++) {
+                        if (movement == null) {
+                            scanAllCenters(points, i, centers, d, assignment, upper, lower);
+                            accumulator.moved++;
+                        } else {
+                            int center = assignment[i];
+                            upper[i] += movement[center];
+                            lower[i] -= center == moved.fastest() ? moved.second() : moved.max();
+
+                            double bound = Math.max(halfGap[center], lower[i]);
+                            if (upper[i] > bound) {
+                                // Tighten the upper bound to the exact distance before paying for the full scan
+                                upper[i] = Math.sqrt(kernel.squaredDistance(points, i * d, centers, center * d, d));
+                                if (upper[i] > bound) {
+                                    scanAllCenters(points, i, centers, d, assignment, upper, lower);
+                                    if (assignment[i] != center) accumulator.moved++;
+                                }
+                            }
+                        }
+                        accumulator.add(points, i, assignment[i]);
+                    }
+                }, Accumulator::merge);
     }
 
-    private Cluster findClosestCluster(Vector vector, List<Cluster> clusters) {
-        Cluster best = clusters.getFirst();
-        double bestDistance = Double.MAX_VALUE;
+    private void scanAllCenters(double[] points, int i, double[] centers, int d,
+                                int[] assignment, double[] upper, double[] lower) {
+        VectorKernel kernel = VectorKernels.get();
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        double secondDistance = Double.POSITIVE_INFINITY;
 
-        for (Cluster cluster : clusters) {
-            double distance = vector.squaredDistanceTo(cluster.getCentroid().coordinates());
+        for (int j = 0; j < k; j++) {
+            double distance = kernel.squaredDistance(points, i * d, centers, j * d, d);
             if (distance < bestDistance) {
-                best = cluster;
+                secondDistance = bestDistance;
                 bestDistance = distance;
+                best = j;
+            } else if (distance < secondDistance) {
+                secondDistance = distance;
+            }
+        }
+
+        assignment[i] = best;
+        upper[i] = Math.sqrt(bestDistance);
+        lower[i] = Math.sqrt(secondDistance);
+    }
+
+    // A point closer to its centre than half the gap to the next centre cannot be closer to any other one
+    private double[] halfDistancesToNearestCenter(double[] centers, int d) {
+        VectorKernel kernel = VectorKernels.get();
+        double[] halfGap = new double[k];
+        Arrays.fill(halfGap, Double.POSITIVE_INFINITY);
+        for (int a = 0; a < k; a++) {
+            for (int b = a + 1; b < k; b++) {
+                double half = Math.sqrt(kernel.squaredDistance(centers, a * d, centers, b * d, d)) / 2;
+                halfGap[a] = Math.min(halfGap[a], half);
+                halfGap[b] = Math.min(halfGap[b], half);
+            }
+        }
+        return halfGap;
+    }
+
+    // Moves every centre to the mean of its points and records how far each moved. Returns the WCSS from the
+    // sufficient statistics, sum |x|² - sum_j n_j |mean_j|², instead of another pass over the points
+    private double moveCenters(Accumulator totals, double[] centers, int d, double[] movement, double squaredNorms) {
+        VectorKernel kernel = VectorKernels.get();
+        double explained = 0;
+        for (int j = 0; j < k; j++) {
+            // An empty cluster keeps its previous centre
+            if (totals.counts[j] == 0) {
+                movement[j] = 0;
+                continue;
+            }
+            for (int column = 0; column < d; column++) {
+                totals.sums[j * d + column] /= totals.counts[j];
+            }
+            movement[j] = Math.sqrt(kernel.squaredDistance(totals.sums, j * d, centers, j * d, d));
+            System.arraycopy(totals.sums, j * d, centers, j * d, d);
+            explained += totals.counts[j] * kernel.dot(centers, j * d, centers, j * d, d);
+        }
+        return Math.max(0, squaredNorms - explained);
+    }
+
+    // Shifts the centres back by the mean; the assignment array is handed over as is
+    private static ClusteringResult toResult(List<Vector> vectors, Points data, Solution solution) {
+        int d = data.d();
+        double[] centroids = solution.centers().clone();
+        for (int i = 0; i < centroids.length; i++) centroids[i] += data.mean()[i % d];
+        return new ClusteringResult(vectors, solution.assignment(), centroids, solution.k());
+    }
+
+    // Read-only once packed, so concurrent runs of a sweep share it
+    private record Points(double[] values, int n, int d, double[] mean, double squaredNorms) {
+        // Packs the vectors row-major, shifted by their mean: clustering is translation invariant, and centred
+        // data keeps the sum-of-squares WCSS formula in moveCenters free of cancellation
+        static Points of(List<Vector> vectors) {
+            int n = vectors.size();
+            int d = vectors.getFirst().size();
+            double[] values = new double[FeatureMatrix.arrayLength(n, d)];
+            double[] mean = new double[d];
+            for (int i = 0; i < n; i++) {
+                Vector vector = vectors.get(i);
+                for (int column = 0; column < d; column++) {
+                    values[i * d + column] = vector.get(column);
+                    mean[column] += vector.get(column);
+                }
+            }
+            for (int column = 0; column < d; column++) mean[column] /= n;
+            for (int i = 0; i < n; i++) {
+                for (int column = 0; column < d; column++) {
+                    values[i * d + column] -= mean[column];
+                }
+            }
+            double squaredNorms = IntStream.range(0, n)
+                    .parallel()
+                    .mapToDouble(i -> VectorKernels.get().dot(values, i * d, values, i * d, d))
+                    .sum();
+            return new Points(values, n, d, mean, squaredNorms);
+        }
+    }
+
+    private record Solution(int k, double[] centers, int[] assignment, List<IterationStats> stats) {}
+
+    // Centres moving by p loosen every bound by at most p; a point's lower bound only has to account for the
+    // fastest centre other than its own
+    private record MovementBounds(int fastest, double max, double second) {
+        static MovementBounds of(double[] movement) {
+            int fastest = 0;
+            double max = 0;
+            double second = 0;
+            for (int j = 0; j < movement.length; j++) {
+                if (movement[j] > max) {
+                    second = max;
+                    max = movement[j];
+                    fastest = j;
+                } else if (movement[j] > second) {
+                    second = movement[j];
+                }
             }
+            return new MovementBounds(fastest, max, second);
+        }
+    }
+
+    // Per-worker cluster sums and counts in primitive arrays, reduced pairwise once the pass is done
+    private static final class Accumulator {
+        private final int d;
+        private final double[] sums;
+        private final int[] counts;
+        private int moved;
+
+        private Accumulator(int k, int d) {
+            this.d = d;
+            this.sums = new double[k * d];
+            this.counts = new int[k];
         }
 
-        return best;
+        private void add(double[] points, int point, int cluster) {
+            int offset = cluster * d;
+            int pointOffset = point * d;
+            for (int column = 0; column < d; column++) {
+                sums[offset + column] += points[pointOffset + column];
+            }
+            counts[cluster]++;
+        }
+
+        private void merge(Accumulator other) {
+            for (int i = 0; i < sums.length; i++) sums[i] += other.sums[i];
+            for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+            moved += other.moved;
+        }
     }
-}
\ No newline at end of file
+}
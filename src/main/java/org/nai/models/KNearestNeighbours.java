@@ -1,36 +1,71 @@
 package org.nai.models;
 
 import org.nai.data.Dataset;
+import org.nai.index.BlockedDistanceEngine;
+import org.nai.index.BruteForceIndex;
+import org.nai.index.DistanceMetric;
+import org.nai.index.HnswIndex;
+import org.nai.index.IndexType;
+import org.nai.index.NeighbourHeap;
+import org.nai.index.NeighbourIndex;
+import org.nai.index.SegmentedIndex;
+import org.nai.structures.FeatureMatrix;
+import org.nai.structures.FeatureStorage;
 import org.nai.structures.Pair;
+import org.nai.structures.QuantizedFeatureMatrix;
 import org.nai.structures.Vector;
 
 import java.util.List;
-import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.Random;
+import java.util.function.Function;
 
 public class KNearestNeighbours implements Classifier {
     private final Random random = new Random();
 
+    // Per-thread buffers reused by every query, so predict() produces no garbage
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
     private Dataset trainSet;
     private int k;
 
+    private FeatureStorage storage = FeatureStorage.FLOAT64;
+    private int rerankCandidates;
+    private QuantizedFeatureMatrix compactSet;
+
+    private DistanceMetric metric = DistanceMetric.SQUARED_EUCLIDEAN;
+    private IndexType indexType = IndexType.AUTO;
+    private HnswIndex.Parameters hnswParameters = HnswIndex.Parameters.DEFAULT;
+    // Published snapshot of the reference set: readers take it once per query, add/remove swap in a new one
+    private volatile SegmentedIndex index;
+    // Set when the trained index is a plain scan: batches then go through the tiled engine while it is current.
+    // The engine computes a norm per row, so only the first batch that needs it builds it
+    private volatile boolean scanIndex;
+    private volatile BlockedDistanceEngine blockedEngine;
+
     public KNearestNeighbours() {
         k = 3;
     }
 
-    private List<Pair<Integer, Double>> calculateDistances(Vector vector) {
-        List<Pair<Integer, Double>> distances = new ArrayList<>();
-        for (Pair<Integer, Vector> pair : trainSet.getData()) {
-            distances.add(new Pair<>(pair.first(), vector.distanceTo(pair.second())));
+    // Scans the compact rows, then optionally re-scores the best candidates against the exact rows
+    private void searchCompact(Vector vector, int k, NeighbourHeap neighbours, Scratch buffers) {
+        if (buffers.query.length < compactSet.columns()) {
+            buffers.query = new double[compactSet.columns()];
+        }
+        double[] query = compactSet.prepareQuery(vector, buffers.query);
+
+        NeighbourHeap candidates = buffers.candidates;
+        candidates.reset(Math.max(k, rerankCandidates));
+        for (int row = 0; row < compactSet.rows(); row++) {
+            candidates.offer(compactSet.squaredDistanceTo(row, query), row);
         }
-        return distances;
-    }
 
-    private void sortDistances(List<Pair<Integer, Double>> distances) {
-        mergeSort(distances);
+        FeatureMatrix exact = rerankCandidates > 0 ? trainSet.getMatrix() : null;
+        for (int i = 0; i < candidates.size(); i++) {
+            int row = candidates.id(i);
+            double distance = exact != null ? exact.squaredDistanceTo(row, vector) : candidates.distance(i);
+            neighbours.offer(distance, row);
+        }
     }
 
     public static <K, V extends Comparable<V>> void mergeSort(List<Pair<K, V>> list) {
@@ -65,43 +100,260 @@ public class KNearestNeighbours implements Classifier {
         }
     }
 
-    private int findPredictedClass(List<Pair<Integer, Double>> distances) {
-        Map<Integer, Integer> countMap = new HashMap<>();
+    private int findPredictedClass(NeighbourHeap neighbours, SegmentedIndex snapshot, Scratch buffers) {
+        return findPredictedClass(labelsOf(neighbours, snapshot, buffers), neighbours.size());
+    }
+
+    // Majority vote over the first `limit` labels, ties broken uniformly at random; k is small, so O(k²)
+    // counting beats a map. After sort() the first entries are the nearest, which is what the multi-k sweep uses
+    private int findPredictedClass(int[] labels, int limit) {
         int maxCount = 0;
-        List<Integer> mostFrequentClasses = new ArrayList<>();
+        int tiedClasses = 0;
 
-        for (int i = 0; i < this.k; i++) {
-            Pair<Integer, Double> pair = distances.get(i);
-            int labelEncoded = pair.first();
-            int count = countMap.getOrDefault(labelEncoded, 0) + 1;
-            countMap.put(labelEncoded, count);
+        for (int i = 0; i < limit; i++) {
+            if (!isFirstOccurrence(labels, i)) continue;
+            int count = countLabel(labels, labels[i], limit);
 
             if (count > maxCount) {
                 maxCount = count;
-                mostFrequentClasses.clear();
-                mostFrequentClasses.add(labelEncoded);
+                tiedClasses = 1;
             } else if (count == maxCount) {
-                mostFrequentClasses.add(labelEncoded);
+                tiedClasses++;
             }
         }
 
-        if (mostFrequentClasses.size() > 1) {
-            return mostFrequentClasses.get(random.nextInt(mostFrequentClasses.size()));
+        int pick = tiedClasses > 1 ? random.nextInt(tiedClasses) : 0;
+        for (int i = 0; i < limit; i++) {
+            if (!isFirstOccurrence(labels, i)) continue;
+            if (countLabel(labels, labels[i], limit) == maxCount && pick-- == 0) return labels[i];
         }
 
-        return mostFrequentClasses.getFirst();
+        throw new IllegalStateException("No neighbours found, was the model trained?");
     }
 
+    private static boolean isFirstOccurrence(int[] labels, int position) {
+        for (int i = 0; i < position; i++) {
+            if (labels[i] == labels[position]) return false;
+        }
+        return true;
+    }
+
+    private static int countLabel(int[] labels, int label, int limit) {
+        int count = 0;
+        for (int i = 0; i < limit; i++) {
+            if (labels[i] == label) count++;
+        }
+        return count;
+    }
+
+    // Labels are resolved against the snapshot the search ran on, so a concurrent remove cannot invalidate them
+    private int[] labelsOf(NeighbourHeap neighbours, SegmentedIndex snapshot, Scratch buffers) {
+        if (buffers.labels.length < neighbours.size()) buffers.labels = new int[neighbours.size()];
+        for (int i = 0; i < neighbours.size(); i++) {
+            int id = neighbours.id(i);
+            buffers.labels[i] = snapshot != null ? snapshot.label(id) : compactSet.label(id);
+        }
+        return buffers.labels;
+    }
+
+    // Synchronized with add/remove, so an update cannot publish a snapshot derived from the replaced index
     @Override
-    public void train(Dataset trainSet) {
-        this.trainSet = trainSet;
+    public synchronized void train(Dataset trainSet) {
+        if (storage != FeatureStorage.FLOAT64 && !metric.isEuclidean()) {
+            throw new IllegalStateException("Quantized storage only supports Euclidean distance, not " + metric);
+        }
+
+        if (storage == FeatureStorage.FLOAT64) {
+            this.trainSet = trainSet;
+            this.compactSet = null;
+            // Segments sealed or compacted later must match this one, whatever the setters change meanwhile
+            DistanceMetric trainedMetric = metric;
+            IndexType trainedIndexType = indexType;
+            HnswIndex.Parameters trainedParameters = hnswParameters;
+            Function<FeatureMatrix, NeighbourIndex> builder =
+                    matrix -> buildIndex(matrix, trainedMetric, trainedIndexType, trainedParameters);
+
+            NeighbourIndex built = builder.apply(trainSet.getMatrix());
+            this.scanIndex = built instanceof BruteForceIndex;
+            this.blockedEngine = null;
+            this.index = SegmentedIndex.of(built, trainedMetric, builder);
+        } else {
+            // Without re-ranking the exact rows are never read, so do not keep them reachable
+            this.trainSet = rerankCandidates > 0 ? trainSet : null;
+            this.compactSet = trainSet.quantize(storage);
+            this.index = null;
+            this.scanIndex = false;
+            this.blockedEngine = null;
+        }
+    }
+
+    private static NeighbourIndex buildIndex(FeatureMatrix matrix, DistanceMetric metric, IndexType indexType,
+                                             HnswIndex.Parameters parameters) {
+        return indexType == IndexType.HNSW && metric.isEuclidean()
+                ? new HnswIndex(matrix, parameters)
+                : indexType.build(matrix, metric);
+    }
+
+    // Adds a labelled sample without retraining and returns its id; searches already running keep their snapshot
+    public synchronized int add(int label, Vector vector) {
+        SegmentedIndex current = requireSegmentedIndex();
+        index = current.withAdded(label, vector);
+        return current.nextId();
+    }
+
+    // Hides the sample from later searches; returns false if the id is unknown or already removed
+    public synchronized boolean remove(int id) {
+        SegmentedIndex current = requireSegmentedIndex();
+        SegmentedIndex next = current.withRemoved(id);
+        if (next == current) return false;
+        index = next.needsCompaction() ? next.compacted() : next;
+        return true;
+    }
+
+    // Number of samples currently searched, after adds and removes
+    public int size() {
+        if (compactSet != null) return compactSet.rows();
+        return index != null ? index.size() : 0;
+    }
+
+    private SegmentedIndex requireSegmentedIndex() {
+        if (compactSet != null) throw new IllegalStateException("Incremental updates need FLOAT64 storage");
+        if (index == null) throw new IllegalStateException("Model must be trained before it can be updated");
+        return index;
     }
 
     @Override
     public int predict(Vector vector) {
-        var distances = calculateDistances(vector);
-        sortDistances(distances);
-        return findPredictedClass(distances);
+        return predict(vector, index, scratch.get());
+    }
+
+    // Each block copies its rows into one reusable vector instead of materialising a Vector per row
+    @Override
+    public int[] predictBatch(Dataset dataset) {
+        FeatureMatrix matrix = dataset.getMatrix();
+        SegmentedIndex snapshot = index;
+        if (usesBlockedEngine(snapshot)) return predictBlocked(matrix, snapshot, blockedEngine(snapshot));
+
+        return BlockPredictions.predict(matrix.rows(), (from, to, predictions) -> {
+            Scratch buffers = scratch.get();
+            double[] row = new double[matrix.columns()];
+            Vector query = Vector.wrap(row);
+            for (int i = from; i < to; i++) {
+                matrix.copyRow(i, row, 0);
+                predictions[i] = predict(query, snapshot, buffers);
+            }
+        });
+    }
+
+    // One neighbour search per row at the largest k answers every k: predictions[j][row] is the vote of the
+    // nearest ks[j] neighbours, so a k sweep costs about as much as a single evaluation
+    public int[][] predictBatch(Dataset dataset, int... ks) {
+        int maxK = checkKs(ks);
+        FeatureMatrix matrix = dataset.getMatrix();
+        int[][] predictions = new int[ks.length][matrix.rows()];
+        SegmentedIndex snapshot = index;
+        BlockedDistanceEngine engine = usesBlockedEngine(snapshot) ? blockedEngine(snapshot) : null;
+
+        BlockPredictions.predict(matrix.rows(), (from, to, ignored) -> {
+            Scratch buffers = scratch.get();
+            if (engine != null) {
+                NeighbourHeap[] heaps = buffers.blockHeaps(to - from, maxK);
+                engine.search(matrix, from, to, heaps);
+                for (int i = from; i < to; i++) {
+                    voteForEachK(heaps[i - from], snapshot, buffers, ks, predictions, i);
+                }
+                return;
+            }
+
+            double[] row = new double[matrix.columns()];
+            Vector query = Vector.wrap(row);
+            for (int i = from; i < to; i++) {
+                matrix.copyRow(i, row, 0);
+                search(query, maxK, snapshot, buffers);
+                voteForEachK(buffers.neighbours, snapshot, buffers, ks, predictions, i);
+            }
+        });
+        return predictions;
+    }
+
+    // Fraction of correctly labelled rows for each of ks, from a single search pass
+    public double[] accuracies(Dataset dataset, int... ks) {
+        int[][] predictions = predictBatch(dataset, ks);
+        FeatureMatrix matrix = dataset.getMatrix();
+        double[] accuracies = new double[ks.length];
+        for (int j = 0; j < ks.length; j++) {
+            int correct = 0;
+            for (int row = 0; row < matrix.rows(); row++) {
+                if (predictions[j][row] == matrix.label(row)) correct++;
+            }
+            accuracies[j] = (double) correct / matrix.rows();
+        }
+        return accuracies;
+    }
+
+    private void voteForEachK(NeighbourHeap neighbours, SegmentedIndex snapshot, Scratch buffers,
+                              int[] ks, int[][] predictions, int row) {
+        neighbours.sort();
+        int[] labels = labelsOf(neighbours, snapshot, buffers);
+        for (int j = 0; j < ks.length; j++) {
+            predictions[j][row] = findPredictedClass(labels, Math.min(ks[j], neighbours.size()));
+        }
+    }
+
+    // The engine only knows the trained rows, so it is bypassed once samples were added or removed
+    private boolean usesBlockedEngine(SegmentedIndex snapshot) {
+        return scanIndex && snapshot != null && snapshot.isUnchanged();
+    }
+
+    // Built over the snapshot's rows on first use, and rebuilt if a later train replaced them
+    private BlockedDistanceEngine blockedEngine(SegmentedIndex snapshot) {
+        FeatureMatrix rows = snapshot.indexes().getFirst().matrix();
+        BlockedDistanceEngine engine = blockedEngine;
+        if (engine != null && engine.matrix() == rows) return engine;
+        synchronized (this) {
+            if (blockedEngine == null || blockedEngine.matrix() != rows) blockedEngine = new BlockedDistanceEngine(rows);
+            return blockedEngine;
+        }
+    }
+
+    private int[] predictBlocked(FeatureMatrix matrix, SegmentedIndex snapshot, BlockedDistanceEngine engine) {
+        return BlockPredictions.predict(matrix.rows(), (from, to, predictions) -> {
+            Scratch buffers = scratch.get();
+            NeighbourHeap[] heaps = buffers.blockHeaps(to - from, k);
+            engine.search(matrix, from, to, heaps);
+            for (int i = from; i < to; i++) {
+                predictions[i] = findPredictedClass(heaps[i - from], snapshot, buffers);
+            }
+        });
+    }
+
+    private int predict(Vector vector, SegmentedIndex snapshot, Scratch buffers) {
+        search(vector, k, snapshot, buffers);
+        return findPredictedClass(buffers.neighbours, snapshot, buffers);
+    }
+
+    // Leaves the k nearest training rows in buffers.neighbours
+    private void search(Vector vector, int k, SegmentedIndex snapshot, Scratch buffers) {
+        NeighbourHeap neighbours = buffers.neighbours;
+        neighbours.reset(k);
+
+        if (compactSet != null) {
+            searchCompact(vector, k, neighbours, buffers);
+        } else if (snapshot == null) {
+            throw new IllegalStateException("No neighbours found, was the model trained?");
+        } else {
+            snapshot.search(vector, neighbours, buffers.candidates);
+        }
+    }
+
+    private static int checkKs(int[] ks) {
+        if (ks.length == 0) throw new IllegalArgumentException("At least one k is required");
+        int maxK = 0;
+        for (int k : ks) {
+            if (k < 1) throw new IllegalArgumentException("k must be positive, got " + k);
+            maxK = Math.max(maxK, k);
+        }
+        return maxK;
     }
 
     // Helper
@@ -109,4 +361,46 @@ public class KNearestNeighbours implements Classifier {
     public void setK(int k) {
         this.k = k;
     }
-}
\ No newline at end of file
+
+    // Takes effect on the next train(); non-Euclidean metrics need FLOAT64 storage and a scan or VP-tree index
+    public void setDistanceMetric(DistanceMetric metric) {
+        this.metric = metric;
+    }
+
+    // Takes effect on the next train(); only applies to FLOAT64 storage, compact rows are always scanned
+    public void setIndexType(IndexType indexType) {
+        this.indexType = indexType;
+    }
+
+    // m and efConstruction take effect on the next train(); efSearch also updates an already built graph
+    public void setHnswParameters(HnswIndex.Parameters parameters) {
+        this.hnswParameters = parameters;
+        SegmentedIndex snapshot = index;
+        if (snapshot == null) return;
+        for (NeighbourIndex segment : snapshot.indexes()) {
+            if (segment instanceof HnswIndex hnsw) hnsw.setEfSearch(parameters.efSearch());
+        }
+    }
+
+    // Takes effect on the next train(); rerankCandidates = 0 disables the exact re-rank
+    public void setStorage(FeatureStorage storage, int rerankCandidates) {
+        this.storage = storage;
+        this.rerankCandidates = rerankCandidates;
+    }
+
+    private static final class Scratch {
+        private final NeighbourHeap neighbours = new NeighbourHeap(16);
+        private final NeighbourHeap candidates = new NeighbourHeap(16);
+        private double[] query = new double[0];
+        private int[] labels = new int[16];
+        private final NeighbourHeap[] blockHeaps = new NeighbourHeap[BlockPredictions.BLOCK_SIZE];
+
+        private NeighbourHeap[] blockHeaps(int count, int k) {
+            for (int i = 0; i < count; i++) {
+                if (blockHeaps[i] == null) blockHeaps[i] = new NeighbourHeap(k);
+                blockHeaps[i].reset(k);
+            }
+            return blockHeaps;
+        }
+    }
+}
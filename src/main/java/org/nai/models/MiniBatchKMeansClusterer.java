@@ -0,0 +1,219 @@
+package org.nai.models;
+
+import org.nai.structures.Centroid;
+import org.nai.structures.ClusteringResult;
+import org.nai.structures.Vector;
+import org.nai.structures.VectorKernel;
+import org.nai.structures.VectorKernels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Mini-batch k-means (Sculley, 2010): each batch is assigned to the current centres, then every point pulls its
+// centre towards itself with rate 1 / (points that centre has seen). State is the k centres and their counts only,
+// so an unbounded feed can be clustered batch by batch with partialFit.
+public class MiniBatchKMeansClusterer implements Clusterer {
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    // cluster runs this many passes' worth of random batches over the data it is given
+    private static final int EPOCHS = 3;
+
+    private final Random random = new Random();
+    private final int batchSize;
+    private int k;
+
+    private int dimensions;
+    private double[] centers;
+    private long[] counts;
+    private int seeded;
+
+    // Reused per batch, so partialFit allocates nothing once the first batch has been seen
+    private double[] batch = new double[0];
+    private int[] nearest = new int[0];
+
+    public MiniBatchKMeansClusterer(int k) {
+        this(k, DEFAULT_BATCH_SIZE);
+    }
+
+    public MiniBatchKMeansClusterer(int k, int batchSize) {
+        if (k < 1) throw new IllegalArgumentException("k must be positive, got " + k);
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive, got " + batchSize);
+        this.k = k;
+        this.batchSize = batchSize;
+    }
+
+    // Restarts with the given k and fits random batches drawn from the vectors, then assigns every vector
+    @Override
+    public ClusteringResult cluster(int k, List<Vector> vectors) {
+        if (k < 1 || k > vectors.size()) {
+            throw new IllegalArgumentException("k must be between 1 and the number of vectors, got " + k);
+        }
+        this.k = k;
+        reset();
+
+        int batches = Math.max(1, EPOCHS * vectors.size() / batchSize);
+        List<Vector> sample = new ArrayList<>(batchSize);
+        for (int b = 0; b < batches; b++) {
+            sample.clear();
+            for (int i = 0; i < batchSize; i++) {
+                sample.add(vectors.get(random.nextInt(vectors.size())));
+            }
+            partialFit(sample);
+        }
+
+        int[] assignment = new int[vectors.size()];
+        for (int i = 0; i < assignment.length; i++) {
+            assignment[i] = predict(vectors.get(i));
+        }
+        return new ClusteringResult(vectors, assignment, Arrays.copyOf(centers, seeded * dimensions), seeded);
+    }
+
+    // Forgets all centres; the next batch seeds them again
+    public void reset() {
+        centers = null;
+        counts = null;
+        seeded = 0;
+    }
+
+    // Consumes the feed in batches of batchSize; only one batch is held at a time
+    public void fit(Iterator<Vector> feed) {
+        List<Vector> chunk = new ArrayList<>(batchSize);
+        while (feed.hasNext()) {
+            chunk.add(feed.next());
+            if (chunk.size() == batchSize) {
+                partialFit(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) partialFit(chunk);
+    }
+
+    public void fit(Stream<Vector> feed) {
+        fit(feed.iterator());
+    }
+
+    public void partialFit(List<Vector> vectors) {
+        if (vectors.isEmpty()) return;
+        if (centers == null) {
+            dimensions = vectors.getFirst().size();
+            centers = new double[k * dimensions];
+            counts = new long[k];
+        }
+
+        int size = load(vectors);
+        int offset = 0;
+        if (seeded == 0 && size >= k) {
+            seedCenters(size);
+        }
+        // A first batch smaller than k just contributes its points as centres until there are k of them
+        while (seeded < k && offset < size) {
+            System.arraycopy(batch, offset * dimensions, centers, seeded * dimensions, dimensions);
+            counts[seeded++] = 1;
+            offset++;
+        }
+        if (offset == size) return;
+
+        // Assign the whole batch against the same centres before moving any of them
+        for (int i = offset; i < size; i++) {
+            nearest[i] = nearestCenter(batch, i * dimensions);
+        }
+        for (int i = offset; i < size; i++) {
+            int center = nearest[i];
+            double rate = 1.0 / ++counts[center];
+            int centerOffset = center * dimensions;
+            int pointOffset = i * dimensions;
+            for (int column = 0; column < dimensions; column++) {
+                centers[centerOffset + column] += rate * (batch[pointOffset + column] - centers[centerOffset + column]);
+            }
+        }
+    }
+
+    public int predict(Vector vector) {
+        checkFitted();
+        if (vector.size() != dimensions) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+        double[] point = vector.data();
+        return nearestCenter(point, 0);
+    }
+
+    public List<Centroid> getCentroids() {
+        checkFitted();
+        List<Centroid> centroids = new ArrayList<>(seeded);
+        for (int j = 0; j < seeded; j++) {
+            int from = j * dimensions;
+            centroids.add(new Centroid(Vector.wrap(Arrays.copyOfRange(centers, from, from + dimensions))));
+        }
+        return centroids;
+    }
+
+    // Helper
+
+    private int load(List<Vector> vectors) {
+        int size = vectors.size();
+        // Checked separately: after a reset, fewer dimensions can fit more rows into the old batch buffer
+        if (batch.length < size * dimensions) batch = new double[size * dimensions];
+        if (nearest.length < size) nearest = new int[size];
+        for (int i = 0; i < size; i++) {
+            Vector vector = vectors.get(i);
+            if (vector.size() != dimensions) {
+                throw new IllegalArgumentException("Vectors must be the same length");
+            }
+            for (int column = 0; column < dimensions; column++) {
+                batch[i * dimensions + column] = vector.get(column);
+            }
+        }
+        return size;
+    }
+
+    // k-means++ over the first batch: each further centre is drawn with probability proportional to the squared
+    // distance to the nearest centre picked so far
+    private void seedCenters(int size) {
+        VectorKernel kernel = VectorKernels.get();
+        double[] distances = new double[size];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+
+        int pick = random.nextInt(size);
+        for (int j = 0; j < k; j++) {
+            System.arraycopy(batch, pick * dimensions, centers, j * dimensions, dimensions);
+            counts[j] = 1;
+            seeded++;
+
+            double total = 0;
+            for (int i = 0; i < size; i++) {
+                distances[i] = Math.min(distances[i], kernel.squaredDistance(batch, i * dimensions, centers, j * dimensions, dimensions));
+                total += distances[i];
+            }
+            double target = random.nextDouble() * total;
+            pick = random.nextInt(size);
+            for (int i = 0; i < size && total > 0; i++) {
+                target -= distances[i];
+                if (target < 0) {
+                    pick = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    private int nearestCenter(double[] points, int offset) {
+        VectorKernel kernel = VectorKernels.get();
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < seeded; j++) {
+            double distance = kernel.squaredDistance(points, offset, centers, j * dimensions, dimensions);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    private void checkFitted() {
+        if (seeded == 0) throw new IllegalStateException("No batches fitted yet");
+    }
+}
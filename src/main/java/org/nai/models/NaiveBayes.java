@@ -1,99 +1,446 @@
 package org.nai.models;
 
 import org.nai.data.Dataset;
+import org.nai.structures.FeatureMatrix;
 import org.nai.structures.Vector;
+import org.nai.utils.DoubleIndexMap;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
+// Naive Bayes over categorical or Gaussian features. The model keeps its sufficient statistics (class and value
+// counts, or per-class means and variances), so it can keep learning with partialFit or absorb a model trained on
+// another shard with merge. Before predicting, the statistics are compiled into primitive tables, so prediction is
+// lookups and additions only.
 public class NaiveBayes implements Classifier {
 
+    // CATEGORICAL treats every distinct value as a category; GAUSSIAN fits a normal distribution per class and
+    // column, which suits continuous features and keeps the model at classes x columns whatever the data size
+    public enum Distribution {
+        CATEGORICAL,
+        GAUSSIAN
+    }
+
+    // Probability assumed for a value the class never had in that column
+    private static final double LOG_UNSEEN = Math.log(1e-9);
+    // Share of the largest column variance added to every variance, so constant columns do not divide by zero
+    private static final double VARIANCE_SMOOTHING = 1e-9;
+
+    // Rows per parallel counting task
+    private static final int CHUNK_SIZE = 4096;
+
     private final int classesAmount;
     private final boolean applySmoothingAll;
-    Map<String, Double> cache = new HashMap<>();
+    private final Distribution distribution;
+    private Counts counts;
+    private Moments moments;
+    // Set by every update; the tables are rebuilt on the next prediction
+    private volatile boolean stale;
+
+    private int columns;
+    // Gaussian mode folds each class's normalising constant into its prior
+    private double[] logPriors;
+    private DoubleIndexMap[] dictionaries;
+    // Row (columnOffsets[col] + value index) holds log P(value | class) for every class
+    private int[] columnOffsets;
+    private double[] logLikelihoods;
+    // Class counts the tables were compiled from; classes whose count is unchanged keep their entries
+    private long[] compiledClassCounts;
+    // Gaussian tables, [col * classesAmount + class]: the mean and 1 / (2 variance)
+    private double[] means;
+    private double[] halfPrecisions;
+    private final ThreadLocal<double[]> scores;
 
     public NaiveBayes(int classesAmount, boolean applySmoothingAll) {
+        this(classesAmount, applySmoothingAll, Distribution.CATEGORICAL);
+    }
+
+    // Smoothing only applies to the categorical tables
+    public NaiveBayes(int classesAmount, boolean applySmoothingAll, Distribution distribution) {
         this.classesAmount = classesAmount;
         this.applySmoothingAll = applySmoothingAll;
+        this.distribution = distribution;
+        this.scores = ThreadLocal.withInitial(() -> new double[classesAmount]);
     }
 
+    // Forgets everything learnt so far and fits the training set from scratch
     @Override
     public void train(Dataset trainSet) {
-        cache.clear();
+        if (trainSet.size() == 0) throw new IllegalArgumentException("Cannot train on an empty dataset");
+        counts = null;
+        moments = null;
+        compiledClassCounts = null;
+        partialFit(trainSet);
+    }
 
-        int entriesAmount = trainSet.size();
-        for (int classIndex = 0; classIndex < classesAmount; classIndex++) {
-            String className = "Class=" + classIndex;
-            int tempClassIndex = classIndex;
-            long classQuantity = trainSet.getData().stream().filter(pair -> pair.first() == tempClassIndex).count();
+    // Adds the rows to the statistics learnt so far; costs one pass over the new rows only
+    public void partialFit(Dataset batch) {
+        FeatureMatrix matrix = batch.getMatrix();
+        if (matrix.rows() == 0) return;
+        checkColumns(matrix.columns());
 
-            findPriori(classQuantity, entriesAmount, className);
-            findPosteriori(trainSet, tempClassIndex, classQuantity, className);
+        if (distribution == Distribution.GAUSSIAN) {
+            Moments batchMoments = measure(matrix);
+            if (moments == null) moments = batchMoments;
+            else moments.merge(batchMoments);
+        } else {
+            Counts batchCounts = count(matrix);
+            if (counts == null) counts = batchCounts;
+            else counts.merge(batchCounts);
         }
+        stale = true;
     }
 
-    private void findPriori(long classQuantity, int entriesAmount, String className) {
-        double classPriorProbability = (double) classQuantity / entriesAmount;
-        cache.put(className, classPriorProbability);
+    // Adds the statistics of a model trained on other rows, giving the model trained on both; partialFit and
+    // merge must not run concurrently with predictions
+    public void merge(NaiveBayes other) {
+        if (other == this) throw new IllegalArgumentException("Cannot merge a model into itself");
+        if (other.classesAmount != classesAmount || other.distribution != distribution) {
+            throw new IllegalArgumentException("Models must have the same number of classes and distribution");
+        }
+        int otherColumns = other.trainedColumns();
+        if (otherColumns < 0) return;
+        checkColumns(otherColumns);
+
+        if (distribution == Distribution.GAUSSIAN) {
+            if (moments == null) moments = new Moments(otherColumns, classesAmount);
+            moments.merge(other.moments);
+        } else {
+            if (counts == null) counts = new Counts(otherColumns, classesAmount);
+            counts.merge(other.counts);
+        }
+        stale = true;
     }
 
-    private void findPosteriori(Dataset trainSet, int tempClassIndex, long classQuantity, String className) {
-        List<org.nai.structures.Pair<Integer, Vector>> classSamples = trainSet.getData().stream()
-                .filter(pair -> pair.first() == tempClassIndex)
-                .toList();
+    @Override
+    public int predict(Vector input) {
+        refresh();
+        if (input.size() != columns) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+        double[] logProbabilities = scores.get();
+        System.arraycopy(logPriors, 0, logProbabilities, 0, classesAmount);
+        for (int col = 0; col < columns; col++) {
+            addLogLikelihoods(logProbabilities, col, input.get(col));
+        }
+        return argMax(logProbabilities);
+    }
 
-        int columnsAmount = classSamples.getFirst().second().size();
+    @Override
+    public int[] predictBatch(Dataset dataset) {
+        refresh();
+        FeatureMatrix matrix = dataset.getMatrix();
+        if (matrix.columns() != columns) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
 
-        for (int columnIndex = 0; columnIndex < columnsAmount; columnIndex++) {
-            int tempColumnIndex = columnIndex;
-            Set<Double> distinctValues = classSamples.stream()
-                    .map(pair -> pair.second().get(tempColumnIndex))
-                    .collect(Collectors.toSet());
+        return BlockPredictions.predict(matrix.rows(), (from, to, predictions) -> {
+            double[] row = new double[matrix.columns()];
+            double[] logProbabilities = new double[classesAmount];
+            for (int i = from; i < to; i++) {
+                matrix.copyRow(i, row, 0);
+                System.arraycopy(logPriors, 0, logProbabilities, 0, classesAmount);
+                for (int col = 0; col < row.length; col++) {
+                    addLogLikelihoods(logProbabilities, col, row[col]);
+                }
+                predictions[i] = argMax(logProbabilities);
+            }
+        });
+    }
 
-            for (Double distinctValue : distinctValues) {
-                long numerator = classSamples.stream()
-                        .filter(pair -> pair.second().get(tempColumnIndex) == distinctValue)
-                        .count();
+    // Helper
 
-                double valueProbability;
-                if (numerator == 0 || applySmoothingAll) {
-                    valueProbability = (double) (numerator + 1) / (classQuantity + distinctValues.size());
-                }
-                else {
-                    valueProbability = (double) numerator / (classQuantity);
+    // One pass over the rows counts classes and (column, value, class) occurrences; parallel workers count into
+    // their own tables, which are merged pairwise at the end
+    private Counts count(FeatureMatrix matrix) {
+        int chunks = (matrix.rows() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return IntStream.range(0, chunks)
+                .parallel()
+                .collect(() -> new Counts(matrix.columns(), classesAmount), (table, chunk) -> {
+                    int to = Math.min(matrix.rows(), (chunk + 1) * CHUNK_SIZE);
+                    for (int row = chunk * CHUNK_SIZE; row < to; row++) table.add(matrix, row);
+                }, Counts::merge);
+    }
+
+    // Same one-pass scheme for the Gaussian statistics
+    private Moments measure(FeatureMatrix matrix) {
+        int chunks = (matrix.rows() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return IntStream.range(0, chunks)
+                .parallel()
+                .collect(() -> new Moments(matrix.columns(), classesAmount), (table, chunk) -> {
+                    int to = Math.min(matrix.rows(), (chunk + 1) * CHUNK_SIZE);
+                    for (int row = chunk * CHUNK_SIZE; row < to; row++) table.add(matrix, row);
+                }, Moments::merge);
+    }
+
+    private synchronized void refresh() {
+        if (!stale) {
+            if (trainedColumns() < 0) throw new IllegalStateException("Model has not been trained");
+            return;
+        }
+        if (distribution == Distribution.GAUSSIAN) compileGaussian();
+        else compileCategorical();
+        stale = false;
+    }
+
+    // P(value | class) is count / classCount, or with smoothing (count + 1) / (classCount + distinct values the
+    // class has in that column); values the class never had get LOG_UNSEEN. New rows of a class change its
+    // denominators in every column, so only the classes whose count moved are recomputed; entries of the others are
+    // copied over, and LOG_UNSEEN for values new to the dictionary.
+    private void compileCategorical() {
+        columns = counts.dictionaries.length;
+        boolean[] changed = new boolean[classesAmount];
+        double[] priors = new double[classesAmount];
+        for (int classIndex = 0; classIndex < classesAmount; classIndex++) {
+            changed[classIndex] = compiledClassCounts == null || compiledClassCounts[classIndex] != counts.classCounts[classIndex];
+            priors[classIndex] = Math.log((double) counts.classCounts[classIndex] / counts.rows);
+        }
+
+        int[] offsets = new int[columns + 1];
+        for (int col = 0; col < columns; col++) {
+            offsets[col + 1] = offsets[col] + counts.dictionaries[col].size();
+        }
+        double[] table = new double[offsets[columns] * classesAmount];
+        Arrays.fill(table, LOG_UNSEEN);
+
+        int[] distinct = new int[classesAmount];
+        for (int col = 0; col < columns; col++) {
+            int[] columnCounts = counts.values[col];
+            int values = counts.dictionaries[col].size();
+            int compiledValues = compiledClassCounts == null ? 0 : columnOffsets[col + 1] - columnOffsets[col];
+            Arrays.fill(distinct, 0);
+            for (int i = 0; i < values * classesAmount; i++) {
+                if (columnCounts[i] > 0) distinct[i % classesAmount]++;
+            }
+
+            int offset = offsets[col] * classesAmount;
+            int compiledOffset = compiledClassCounts == null ? 0 : columnOffsets[col] * classesAmount;
+            for (int i = 0; i < values * classesAmount; i++) {
+                int classIndex = i % classesAmount;
+                if (!changed[classIndex]) {
+                    if (i < compiledValues * classesAmount) table[offset + i] = logLikelihoods[compiledOffset + i];
+                    continue;
                 }
+                int numerator = columnCounts[i];
+                if (numerator == 0) continue;
+                long classQuantity = counts.classCounts[classIndex];
+                double valueProbability = applySmoothingAll
+                        ? (double) (numerator + 1) / (classQuantity + distinct[classIndex])
+                        : (double) numerator / classQuantity;
+                table[offset + i] = Math.log(valueProbability);
+            }
+        }
 
-                String valueName = "Column=" + columnIndex + ",Value=" + distinctValue + "|" + className;
-                cache.put(valueName, valueProbability);
+        logPriors = priors;
+        dictionaries = counts.dictionaries;
+        columnOffsets = offsets;
+        logLikelihoods = table;
+        compiledClassCounts = counts.classCounts.clone();
+    }
+
+    // log N(x; mean, variance) = -log(2 pi variance) / 2 - (x - mean)² / (2 variance); the first term does not
+    // depend on x, so its sum over the columns joins the prior and prediction only pays for the squared distance
+    private void compileGaussian() {
+        columns = moments.columns;
+        double smoothing = VARIANCE_SMOOTHING * Math.max(moments.maxColumnVariance(), 1e-300);
+        double[] priors = new double[classesAmount];
+        double[] classMeans = new double[columns * classesAmount];
+        double[] classHalfPrecisions = new double[columns * classesAmount];
+
+        for (int classIndex = 0; classIndex < classesAmount; classIndex++) {
+            long classQuantity = moments.classCounts[classIndex];
+            if (classQuantity == 0) {
+                priors[classIndex] = Double.NEGATIVE_INFINITY;
+                continue;
             }
+            double logPrior = Math.log((double) classQuantity / moments.rows);
+            for (int col = 0; col < columns; col++) {
+                int source = classIndex * columns + col;
+                double variance = moments.squaredDeviations[source] / classQuantity + smoothing;
+                classMeans[col * classesAmount + classIndex] = moments.means[source];
+                classHalfPrecisions[col * classesAmount + classIndex] = 0.5 / variance;
+                logPrior -= 0.5 * Math.log(2 * Math.PI * variance);
+            }
+            priors[classIndex] = logPrior;
+        }
 
+        logPriors = priors;
+        means = classMeans;
+        halfPrecisions = classHalfPrecisions;
+    }
+
+    private void addLogLikelihoods(double[] logProbabilities, int col, double value) {
+        if (distribution == Distribution.GAUSSIAN) {
+            int offset = col * classesAmount;
+            for (int classIndex = 0; classIndex < classesAmount; classIndex++) {
+                double deviation = value - means[offset + classIndex];
+                logProbabilities[classIndex] -= deviation * deviation * halfPrecisions[offset + classIndex];
+            }
+            return;
+        }
+
+        int index = dictionaries[col].get(value);
+        if (index < 0) {
+            for (int classIndex = 0; classIndex < classesAmount; classIndex++) logProbabilities[classIndex] += LOG_UNSEEN;
+            return;
+        }
+        int offset = (columnOffsets[col] + index) * classesAmount;
+        for (int classIndex = 0; classIndex < classesAmount; classIndex++) {
+            logProbabilities[classIndex] += logLikelihoods[offset + classIndex];
         }
     }
 
-    @Override
-    public int predict(Vector input) {
+    private int argMax(double[] logProbabilities) {
         double maxLogProbability = Double.NEGATIVE_INFINITY;
         int bestClass = -1;
-
         for (int classIndex = 0; classIndex < classesAmount; classIndex++) {
-            String className = "Class=" + classIndex;
-            double logProb = Math.log(cache.get(className));
+            if (logProbabilities[classIndex] > maxLogProbability) {
+                maxLogProbability = logProbabilities[classIndex];
+                bestClass = classIndex;
+            }
+        }
+        return bestClass;
+    }
+
+    // Columns of the statistics gathered so far, -1 before any training
+    private int trainedColumns() {
+        if (counts != null) return counts.dictionaries.length;
+        if (moments != null) return moments.columns;
+        return -1;
+    }
+
+    private void checkColumns(int columns) {
+        int trained = trainedColumns();
+        if (trained >= 0 && columns != trained) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+    }
+
+    // Per-class running mean and sum of squared deviations (Welford), merged across workers with Chan's formula
+    private static final class Moments {
+        private final int columns;
+        private final int classes;
+        private final long[] classCounts;
+        // [class * columns + col]
+        private final double[] means;
+        private final double[] squaredDeviations;
+        private long rows;
+
+        private Moments(int columns, int classes) {
+            this.columns = columns;
+            this.classes = classes;
+            this.classCounts = new long[classes];
+            this.means = new double[classes * columns];
+            this.squaredDeviations = new double[classes * columns];
+        }
 
-            for (int col = 0; col < input.size(); col++) {
-                String key = "Column=" + col + ",Value=" + input.get(col) + "|" + className;
-                double condProb = cache.getOrDefault(key, 1e-9);
-                logProb += Math.log(condProb);
+        private void add(FeatureMatrix matrix, int row) {
+            int label = matrix.label(row);
+            if (label < 0 || label >= classes) throw new IllegalArgumentException("Invalid class: " + label);
+            long count = ++classCounts[label];
+            rows++;
+            int offset = label * columns;
+            for (int col = 0; col < columns; col++) {
+                double value = matrix.get(row, col);
+                double delta = value - means[offset + col];
+                means[offset + col] += delta / count;
+                squaredDeviations[offset + col] += delta * (value - means[offset + col]);
             }
+        }
 
-            if (logProb > maxLogProbability) {
-                maxLogProbability = logProb;
-                bestClass = classIndex;
+        private void merge(Moments other) {
+            for (int classIndex = 0; classIndex < classes; classIndex++) {
+                long ownCount = classCounts[classIndex];
+                long otherCount = other.classCounts[classIndex];
+                if (otherCount == 0) continue;
+                long total = ownCount + otherCount;
+                int offset = classIndex * columns;
+                for (int col = 0; col < columns; col++) {
+                    double delta = other.means[offset + col] - means[offset + col];
+                    means[offset + col] += delta * otherCount / total;
+                    squaredDeviations[offset + col] += other.squaredDeviations[offset + col]
+                            + delta * delta * ownCount * otherCount / total;
+                }
+                classCounts[classIndex] = total;
             }
+            rows += other.rows;
         }
 
-        return bestClass;
+        // Largest variance of any column over all rows, from the per-class moments
+        private double maxColumnVariance() {
+            double max = 0;
+            for (int col = 0; col < columns; col++) {
+                long count = 0;
+                double mean = 0;
+                double squared = 0;
+                for (int classIndex = 0; classIndex < classes; classIndex++) {
+                    long classCount = classCounts[classIndex];
+                    if (classCount == 0) continue;
+                    int index = classIndex * columns + col;
+                    long total = count + classCount;
+                    double delta = means[index] - mean;
+                    mean += delta * classCount / total;
+                    squared += squaredDeviations[index] + delta * delta * count * classCount / total;
+                    count = total;
+                }
+                max = Math.max(max, squared / rows);
+            }
+            return max;
+        }
+    }
+
+    // Sufficient statistics: rows per class and, per column, occurrences of each (value, class) pair
+    private static final class Counts {
+        private final int classes;
+        private final long[] classCounts;
+        private final DoubleIndexMap[] dictionaries;
+        // values[col][valueIndex * classes + class], grown as the column's dictionary grows
+        private final int[][] values;
+        private long rows;
+
+        private Counts(int columns, int classes) {
+            this.classes = classes;
+            this.classCounts = new long[classes];
+            this.dictionaries = new DoubleIndexMap[columns];
+            this.values = new int[columns][];
+            for (int col = 0; col < columns; col++) {
+                dictionaries[col] = new DoubleIndexMap();
+                values[col] = new int[16 * classes];
+            }
+        }
+
+        private void add(FeatureMatrix matrix, int row) {
+            int label = matrix.label(row);
+            if (label < 0 || label >= classes) throw new IllegalArgumentException("Invalid class: " + label);
+            classCounts[label]++;
+            rows++;
+            for (int col = 0; col < values.length; col++) {
+                add(col, dictionaries[col].add(matrix.get(row, col)), label, 1);
+            }
+        }
+
+        private void add(int col, int valueIndex, int label, int count) {
+            // Whole value rows are allocated, so readers can index any class of a known value
+            int rowEnd = (valueIndex + 1) * classes;
+            if (rowEnd > values[col].length) values[col] = Arrays.copyOf(values[col], Math.max(rowEnd, values[col].length * 2));
+            values[col][valueIndex * classes + label] += count;
+        }
+
+        // Re-indexes the other table's values into this table's dictionaries
+        private void merge(Counts other) {
+            for (int classIndex = 0; classIndex < classes; classIndex++) classCounts[classIndex] += other.classCounts[classIndex];
+            rows += other.rows;
+            for (int col = 0; col < values.length; col++) {
+                DoubleIndexMap otherDictionary = other.dictionaries[col];
+                int[] otherCounts = other.values[col];
+                for (int valueIndex = 0; valueIndex < otherDictionary.size(); valueIndex++) {
+                    int target = dictionaries[col].add(otherDictionary.value(valueIndex));
+                    for (int classIndex = 0; classIndex < classes; classIndex++) {
+                        int count = otherCounts[valueIndex * classes + classIndex];
+                        if (count > 0) add(col, target, classIndex, count);
+                    }
+                }
+            }
+        }
     }
 }
@@ -1,6 +1,7 @@
 package org.nai.models;
 
 import org.nai.data.Dataset;
+import org.nai.structures.FeatureMatrix;
 import org.nai.structures.Vector;
 
 public class Perceptron implements Classifier {
@@ -9,6 +10,7 @@ public class Perceptron implements Classifier {
 
     private int epochs;
     private double threshold = 0;
+    private boolean converged;
 
     public Perceptron(double alpha) {
         this.alpha = alpha;
@@ -16,32 +18,46 @@ public class Perceptron implements Classifier {
 
     @Override
     public void train(Dataset trainSet) {
-        weights = new Vector(new double[trainSet.getData().getFirst().second().size()]);
-        boolean shouldBreak = false;
-        for (; ; epochs++) {
-            int errors = (int) trainSet.getData().stream().filter(pair -> adjustWeights(pair.second(), pair.first())).count();
+        train(trainSet.getMatrix(), 1);
+        System.out.println(trainingSummary() + "\n");
+    }
+
+    // One-vs-rest training: rows labelled positiveClass are the positive examples and all others the negative ones,
+    // decided per row so no relabelled copy of the data is made. Prints nothing, so several can train at once
+    public void train(FeatureMatrix matrix, int positiveClass) {
+        weights = Vector.wrap(new double[matrix.columns()]);
+        threshold = 0;
+        for (epochs = 0; ; epochs++) {
+            int errors = 0;
+            for (int row = 0; row < matrix.rows(); row++) {
+                if (adjustWeights(matrix, row, positiveClass)) errors++;
+            }
 
             if (errors == 0) {
-                System.out.println("Training complete after " + (epochs + 1) + " epochs.\n");
-                shouldBreak = true;
+                converged = true;
+                break;
             }
             else if (epochs >= 1000) {
-                System.out.println("Training forcibly stopped after " + (epochs) + " epochs.\n");
-                shouldBreak = true;
+                converged = false;
+                break;
             }
-
-            if (shouldBreak) break;
         }
     }
 
-    private boolean adjustWeights(Vector vector, double answer) {
-        int prediction = predict(vector);
-        double delta = answer - prediction;
+    public String trainingSummary() {
+        if (weights == null) throw new IllegalStateException("Perceptron has not been trained");
+        return converged
+                ? "Training complete after " + (epochs + 1) + " epochs."
+                : "Training forcibly stopped after " + epochs + " epochs.";
+    }
+
+    private boolean adjustWeights(FeatureMatrix matrix, int row, int positiveClass) {
+        int prediction = (matrix.dot(row, weights) >= threshold) ? 1 : 0;
+        int target = matrix.label(row) == positiveClass ? 1 : 0;
+        double delta = target - prediction;
 
         if (delta != 0) {
-            for (int i = 0; i < weights.size(); i++) {
-                weights = weights.add(vector.scale(alpha * delta));
-            }
+            matrix.addScaledRowTo(row, alpha * delta, weights);
 
             threshold -= delta * alpha;
             return true;
@@ -69,6 +85,9 @@ public class Perceptron implements Classifier {
     public double getThreshold() {
         return threshold;
     }
+    public int getEpochs() {
+        return epochs;
+    }
 
     public void setAlpha(double alpha) {
         this.alpha = alpha;
@@ -1,11 +1,13 @@
 package org.nai.models;
 
 import org.nai.data.Dataset;
-import org.nai.structures.Pair;
+import org.nai.structures.FeatureMatrix;
 import org.nai.structures.Vector;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 public class SingleLayerNeuralNetwork implements Classifier {
 
@@ -17,18 +19,18 @@ public class SingleLayerNeuralNetwork implements Classifier {
         }
     }
 
+    // Neurons train concurrently on the shared matrix, each comparing labels to its class on the fly; their
+    // summaries are printed afterwards, in class order
     @Override
     public void train(Dataset trainSet) {
-        for (int classIndex = 0; classIndex < neurons.size(); classIndex++) {
-            Dataset binaryTrainSet = new Dataset();
-
-            for (Pair<Integer, Vector> sample : trainSet.getData()) {
-                int label = sample.first().equals(classIndex) ? 1 : 0;
-                binaryTrainSet.add(new Pair<>(label, sample.second()));
-            }
+        FeatureMatrix matrix = trainSet.getMatrix();
+        IntStream.range(0, neurons.size())
+                .parallel()
+                .forEach(classIndex -> neurons.get(classIndex).train(matrix, classIndex));
 
+        for (int classIndex = 0; classIndex < neurons.size(); classIndex++) {
             System.out.println("Training perceptron for class " + classIndex + ":");
-            neurons.get(classIndex).train(binaryTrainSet);
+            System.out.println(neurons.get(classIndex).trainingSummary() + "\n");
         }
     }
 
@@ -49,4 +51,29 @@ public class SingleLayerNeuralNetwork implements Classifier {
 
         return bestClass;
     }
+
+    // Neuron-major within a block: one neuron's weights stay hot while they score every row of the block
+    @Override
+    public int[] predictBatch(Dataset dataset) {
+        FeatureMatrix matrix = dataset.getMatrix();
+        return BlockPredictions.predict(matrix.rows(), (from, to, predictions) -> {
+            double[] highestNet = new double[to - from];
+            Arrays.fill(highestNet, Double.NEGATIVE_INFINITY);
+            Arrays.fill(predictions, from, to, -1);
+
+            for (int i = 0; i < neurons.size(); i++) {
+                Perceptron perceptron = neurons.get(i);
+                Vector weights = perceptron.getWeights();
+                double threshold = perceptron.getThreshold();
+
+                for (int row = from; row < to; row++) {
+                    double netValue = matrix.dot(row, weights) - threshold;
+                    if (netValue > highestNet[row - from]) {
+                        highestNet[row - from] = netValue;
+                        predictions[row] = i;
+                    }
+                }
+            }
+        });
+    }
 }
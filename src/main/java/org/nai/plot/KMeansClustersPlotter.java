@@ -2,7 +2,7 @@ package org.nai.plot;
 
 import org.nai.structures.Pair;
 import org.nai.structures.Vector;
-import org.nai.structures.Cluster;
+import org.nai.structures.ClusteringResult;
 import org.knowm.xchart.SwingWrapper;
 import org.knowm.xchart.XYChart;
 import org.knowm.xchart.XYChartBuilder;
@@ -17,13 +17,13 @@ public class KMeansClustersPlotter {
 
     private KMeansClustersPlotter() {}
 
-    public static void plotClusters(List<Cluster> clusters) {
-        if (clusters == null || clusters.isEmpty()) {
+    public static void plotClusters(ClusteringResult clusters) {
+        if (clusters == null || clusters.size() == 0) {
             System.err.println("No clusters to plot.");
             return;
         }
 
-        int dims = clusters.getFirst().getCentroid().coordinates().size();
+        int dims = clusters.dimensions();
         List<XYChart> charts = new ArrayList<>();
 
         for (int i = 0; i < dims; i++) {
@@ -37,23 +37,23 @@ public class KMeansClustersPlotter {
 
                 chart.getStyler().setMarkerSize(8);
 
-                for (int c = 0; c < clusters.size(); c++) {
-                    Cluster cluster = clusters.get(c);
-
-                    List<Vector> members = cluster.getMembers();
-                    int tempI = i;
-                    double[] x = members.stream().mapToDouble(v -> v.get(tempI)).toArray();
-                    int tempJ = j;
-                    double[] y = members.stream().mapToDouble(v -> v.get(tempJ)).toArray();
+                for (int c = 0; c < clusters.k(); c++) {
+                    int size = clusters.clusterSize(c);
+                    double[] x = new double[size];
+                    double[] y = new double[size];
+                    for (int m = 0; m < size; m++) {
+                        Vector member = clusters.point(clusters.member(c, m));
+                        x[m] = member.get(i);
+                        y[m] = member.get(j);
+                    }
 
                     chart.addSeries("Cluster " + c, x, y)
                             .setMarker(SeriesMarkers.CIRCLE)
                             .setLineStyle(SeriesLines.NONE);
 
                     // Plot centroid in black
-                    Vector cent = cluster.getCentroid().coordinates();
-                    double[] cx = { cent.get(i) };
-                    double[] cy = { cent.get(j) };
+                    double[] cx = { clusters.centroidCoordinate(c, i) };
+                    double[] cy = { clusters.centroidCoordinate(c, j) };
                     chart.addSeries("Centroid " + c, cx, cy)
                             .setMarker(SeriesMarkers.DIAMOND)
                             .setMarkerColor(Color.BLACK)
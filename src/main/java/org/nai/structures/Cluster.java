@@ -24,7 +24,7 @@ public class Cluster {
             vectorArr[i] /= members.size();
         }
 
-        this.centroid = new Centroid(new Vector(vectorArr));
+        this.centroid = new Centroid(Vector.wrap(vectorArr));
     }
 
     public void addMember(Vector member) {
@@ -0,0 +1,144 @@
+package org.nai.structures;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compact clustering: the cluster index of every point plus a row-major k x d centroid matrix. Points stay in the
+// caller's list, so a result costs 4 bytes per point; member lists are views built on first use.
+public final class ClusteringResult {
+    private final List<Vector> points;
+    private final int[] assignment;
+    private final double[] centroids;
+    private final int k;
+    private final int dimensions;
+
+    // Members of cluster c are points order[offsets[c]] .. order[offsets[c + 1] - 1], in input order
+    private record MemberIndex(int[] offsets, int[] order) {}
+
+    private volatile MemberIndex memberIndex;
+
+    // Takes ownership of assignment and centroids without copying them
+    public ClusteringResult(List<Vector> points, int[] assignment, double[] centroids, int k) {
+        if (k < 1 || centroids.length % k != 0) {
+            throw new IllegalArgumentException("Centroid matrix does not hold " + k + " rows");
+        }
+        if (assignment.length != points.size()) {
+            throw new IllegalArgumentException("Need one assignment per point, got " + assignment.length + " for " + points.size());
+        }
+        for (int cluster : assignment) {
+            if (cluster < 0 || cluster >= k) throw new IllegalArgumentException("Invalid cluster: " + cluster);
+        }
+        this.points = points;
+        this.assignment = assignment;
+        this.centroids = centroids;
+        this.k = k;
+        this.dimensions = centroids.length / k;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        return assignment.length;
+    }
+
+    public Vector point(int point) {
+        return points.get(point);
+    }
+
+    public int clusterOf(int point) {
+        return assignment[point];
+    }
+
+    public Centroid centroid(int cluster) {
+        checkCluster(cluster);
+        int from = cluster * dimensions;
+        return new Centroid(Vector.wrap(Arrays.copyOfRange(centroids, from, from + dimensions)));
+    }
+
+    public double centroidCoordinate(int cluster, int column) {
+        checkCluster(cluster);
+        if (column < 0 || column >= dimensions) throw new IndexOutOfBoundsException("Invalid column: " + column);
+        return centroids[cluster * dimensions + column];
+    }
+
+    public double squaredDistanceToCentroid(int point) {
+        double[] coordinates = points.get(point).array();
+        if (coordinates.length != dimensions) throw new IllegalArgumentException("Vectors must be the same length");
+        return VectorKernels.get().squaredDistance(coordinates, 0, centroids, assignment[point] * dimensions, dimensions);
+    }
+
+    public int clusterSize(int cluster) {
+        checkCluster(cluster);
+        int[] offsets = memberIndex().offsets();
+        return offsets[cluster + 1] - offsets[cluster];
+    }
+
+    // Index into the points of the member-th point of the cluster
+    public int member(int cluster, int member) {
+        checkCluster(cluster);
+        MemberIndex index = memberIndex();
+        int from = index.offsets()[cluster];
+        if (member < 0 || member >= index.offsets()[cluster + 1] - from) {
+            throw new IndexOutOfBoundsException("Invalid member: " + member);
+        }
+        return index.order()[from + member];
+    }
+
+    // Read-only view over the points of the cluster, no vectors are copied
+    public List<Vector> members(int cluster) {
+        int size = clusterSize(cluster);
+        return new AbstractList<>() {
+            @Override
+            public Vector get(int member) {
+                return points.get(member(cluster, member));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // Materialises list-backed clusters for callers of the older Cluster API
+    public List<Cluster> toClusters() {
+        List<Cluster> clusters = new ArrayList<>(k);
+        for (int cluster = 0; cluster < k; cluster++) {
+            clusters.add(new Cluster(centroid(cluster), new ArrayList<>(members(cluster))));
+        }
+        return clusters;
+    }
+
+    // Helper
+
+    // Counting sort of the point indices by cluster; racing threads would build identical indexes
+    private MemberIndex memberIndex() {
+        MemberIndex index = memberIndex;
+        if (index != null) return index;
+
+        int[] offsets = new int[k + 1];
+        for (int cluster : assignment) offsets[cluster + 1]++;
+        for (int cluster = 0; cluster < k; cluster++) offsets[cluster + 1] += offsets[cluster];
+        int[] next = Arrays.copyOf(offsets, k);
+        int[] order = new int[assignment.length];
+        for (int point = 0; point < assignment.length; point++) {
+            order[next[assignment[point]]++] = point;
+        }
+
+        index = new MemberIndex(offsets, order);
+        memberIndex = index;
+        return index;
+    }
+
+    private void checkCluster(int cluster) {
+        if (cluster < 0 || cluster >= k) throw new IndexOutOfBoundsException("Invalid cluster: " + cluster);
+    }
+}
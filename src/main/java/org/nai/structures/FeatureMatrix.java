@@ -0,0 +1,127 @@
+package org.nai.structures;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Row-major labelled feature storage; the backing memory is up to the subclass
+public abstract class FeatureMatrix {
+    // Some JVMs reserve header words in an array, so lengths right at Integer.MAX_VALUE can fail
+    static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private static final ThreadLocal<double[]> ROW_BUFFER = ThreadLocal.withInitial(() -> new double[0]);
+
+    public abstract int rows();
+
+    public abstract int columns();
+
+    public abstract int label(int row);
+
+    public abstract double get(int row, int column);
+
+    public abstract void copyRow(int row, double[] target, int offset);
+
+    public abstract double dot(int row, Vector vector);
+
+    public abstract double squaredDistanceTo(int row, Vector vector);
+
+    // target += alpha * row, without materialising the row
+    public abstract void addScaledRowTo(int row, double alpha, Vector target);
+
+    public double squaredDistanceBetween(int rowA, int rowB) {
+        return squaredDistanceTo(rowA, row(rowB));
+    }
+
+    // Rows that are not backed by an array are copied into a per-thread buffer, never onto a new one
+    public double distanceTo(int row, Vector query, RowDistance distance, double bound) {
+        checkLength(query.size());
+        double[] buffer = rowBuffer(1);
+        copyRow(row, buffer, 0);
+        return distance.distance(buffer, 0, query.array(), 0, columns(), bound);
+    }
+
+    public double distanceBetween(int rowA, int rowB, RowDistance distance) {
+        double[] buffer = rowBuffer(2);
+        copyRow(rowA, buffer, 0);
+        copyRow(rowB, buffer, columns());
+        return distance.distance(buffer, 0, buffer, columns(), columns(), Double.POSITIVE_INFINITY);
+    }
+
+    public Vector row(int row) {
+        double[] values = new double[columns()];
+        copyRow(row, values, 0);
+        return Vector.wrap(values);
+    }
+
+    // Views: both read straight from the backing storage, no copy of the matrix is made
+
+    public List<Integer> labelsView() {
+        return new LabelsView();
+    }
+
+    public List<Vector> rowsView() {
+        return new RowsView();
+    }
+
+    // Helper
+
+    protected void checkRow(int row) {
+        if (row < 0 || row >= rows()) {
+            throw new IndexOutOfBoundsException("Invalid row: " + row);
+        }
+    }
+
+    protected void checkColumn(int column) {
+        if (column < 0 || column >= columns()) {
+            throw new IndexOutOfBoundsException("Invalid column: " + column);
+        }
+    }
+
+    protected void checkLength(int length) {
+        if (length != columns()) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+    }
+
+    private double[] rowBuffer(int rows) {
+        double[] buffer = ROW_BUFFER.get();
+        if (buffer.length < rows * columns()) {
+            buffer = new double[rows * columns()];
+            ROW_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    // Length of an array holding rows * columns values, rejected up front instead of overflowing int
+    public static int arrayLength(long rows, int columns) {
+        long length = rows * columns;
+        if (length > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException(rows + " rows of " + columns + " columns exceed the maximum array length");
+        }
+        return (int) length;
+    }
+
+    private class LabelsView extends AbstractList<Integer> implements RandomAccess {
+        @Override
+        public Integer get(int index) {
+            return label(index);
+        }
+
+        @Override
+        public int size() {
+            return rows();
+        }
+    }
+
+    private class RowsView extends AbstractList<Vector> implements RandomAccess {
+        @Override
+        public Vector get(int index) {
+            return row(index);
+        }
+
+        @Override
+        public int size() {
+            return rows();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.nai.structures;
+
+public enum FeatureStorage {
+    FLOAT64(Double.BYTES),
+    FLOAT32(Float.BYTES),
+    INT8(Byte.BYTES);
+
+    private final int bytesPerValue;
+
+    FeatureStorage(int bytesPerValue) {
+        this.bytesPerValue = bytesPerValue;
+    }
+
+    public int bytesPerValue() {
+        return bytesPerValue;
+    }
+}
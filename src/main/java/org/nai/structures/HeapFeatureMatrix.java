@@ -0,0 +1,135 @@
+package org.nai.structures;
+
+import java.util.Arrays;
+
+public class HeapFeatureMatrix extends FeatureMatrix {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Row-major: row i occupies values[i * columns, (i + 1) * columns)
+    private double[] values;
+    private int[] labels;
+    private int columns;
+    private int rows;
+
+    public HeapFeatureMatrix() {
+        this(-1, DEFAULT_CAPACITY);
+    }
+
+    public HeapFeatureMatrix(int columns, int capacity) {
+        this.columns = columns > 0 ? columns : -1;
+        this.labels = new int[Math.max(capacity, 1)];
+        this.values = new double[columns > 0 ? arrayLength(labels.length, columns) : 0];
+    }
+
+    public void add(int label, Vector vector) {
+        double[] source = vector.array();
+        checkColumns(source.length);
+        ensureCapacity(rows + 1);
+        System.arraycopy(source, 0, values, rows * columns, columns);
+        labels[rows++] = label;
+    }
+
+    public void addRow(FeatureMatrix source, int row) {
+        int label = source.label(row);
+        checkColumns(source.columns());
+        ensureCapacity(rows + 1);
+        source.copyRow(row, values, rows * columns);
+        labels[rows++] = label;
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int columns() {
+        return Math.max(columns, 0);
+    }
+
+    @Override
+    public int label(int row) {
+        checkRow(row);
+        return labels[row];
+    }
+
+    @Override
+    public double get(int row, int column) {
+        checkRow(row);
+        checkColumn(column);
+        return values[row * columns + column];
+    }
+
+    @Override
+    public void copyRow(int row, double[] target, int offset) {
+        checkRow(row);
+        System.arraycopy(values, row * columns, target, offset, columns);
+    }
+
+    @Override
+    public double dot(int row, Vector vector) {
+        checkRow(row);
+        double[] other = vector.array();
+        checkLength(other.length);
+        return VectorKernels.get().dot(values, row * columns, other, 0, columns);
+    }
+
+    @Override
+    public double squaredDistanceTo(int row, Vector vector) {
+        checkRow(row);
+        double[] other = vector.array();
+        checkLength(other.length);
+        return VectorKernels.get().squaredDistance(values, row * columns, other, 0, columns);
+    }
+
+    @Override
+    public double squaredDistanceBetween(int rowA, int rowB) {
+        checkRow(rowA);
+        checkRow(rowB);
+        return VectorKernels.get().squaredDistance(values, rowA * columns, values, rowB * columns, columns);
+    }
+
+    @Override
+    public double distanceTo(int row, Vector query, RowDistance distance, double bound) {
+        checkRow(row);
+        double[] other = query.array();
+        checkLength(other.length);
+        return distance.distance(values, row * columns, other, 0, columns, bound);
+    }
+
+    @Override
+    public double distanceBetween(int rowA, int rowB, RowDistance distance) {
+        checkRow(rowA);
+        checkRow(rowB);
+        return distance.distance(values, rowA * columns, values, rowB * columns, columns, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public void addScaledRowTo(int row, double alpha, Vector target) {
+        checkRow(row);
+        double[] other = target.array();
+        checkLength(other.length);
+        VectorKernels.get().axpy(alpha, values, row * columns, other, columns);
+    }
+
+    // Helper
+
+    private void ensureCapacity(int required) {
+        if (required <= labels.length) return;
+        // Doubling stops at the array limit; only a required size beyond it is rejected
+        long limit = columns > 0 ? MAX_ARRAY_LENGTH / columns : MAX_ARRAY_LENGTH;
+        int capacity = (int) Math.max(required, Math.min(labels.length * 2L, limit));
+        int length = arrayLength(capacity, columns);
+        labels = Arrays.copyOf(labels, capacity);
+        values = Arrays.copyOf(values, length);
+    }
+
+    private void checkColumns(int length) {
+        if (columns < 0) {
+            columns = length;
+            values = new double[arrayLength(labels.length, columns)];
+        } else {
+            checkLength(length);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.nai.structures;
+
+public class QuantizedFeatureMatrix {
+    private static final int INT8_LEVELS = 255;
+    private static final int INT8_SHIFT = 128;
+
+    private final FeatureStorage storage;
+    private final int rows;
+    private final int columns;
+    private final int[] labels;
+
+    // Only one of the two is allocated, depending on the storage
+    private final float[] floats;
+    private final byte[] bytes;
+
+    // Per column: value = offset + scale * (code + shift); distances are weighted by scale²
+    private final double[] offsets;
+    private final double[] scales;
+    private final double[] weights;
+    private final double shift;
+
+    private QuantizedFeatureMatrix(FeatureMatrix source, FeatureStorage storage) {
+        this.storage = storage;
+        this.rows = source.rows();
+        this.columns = source.columns();
+        this.labels = new int[rows];
+        this.offsets = new double[columns];
+        this.scales = new double[columns];
+        this.weights = new double[columns];
+        this.shift = storage == FeatureStorage.INT8 ? INT8_SHIFT : 0;
+        // The source may be off-heap and larger than any array, so the code count is checked before allocating
+        int length = FeatureMatrix.arrayLength(rows, columns);
+        this.floats = storage == FeatureStorage.FLOAT32 ? new float[length] : null;
+        this.bytes = storage == FeatureStorage.INT8 ? new byte[length] : null;
+
+        fitColumns(source);
+        encode(source);
+    }
+
+    public static QuantizedFeatureMatrix of(FeatureMatrix source, FeatureStorage storage) {
+        if (storage == FeatureStorage.FLOAT64) {
+            throw new IllegalArgumentException("FLOAT64 is the uncompressed FeatureMatrix itself");
+        }
+        return new QuantizedFeatureMatrix(source, storage);
+    }
+
+    private void fitColumns(FeatureMatrix source) {
+        for (int column = 0; column < columns; column++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int row = 0; row < rows; row++) {
+                double value = source.get(row, column);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            double range = rows == 0 ? 0 : max - min;
+            double levels = storage == FeatureStorage.INT8 ? INT8_LEVELS : 1;
+            offsets[column] = rows == 0 ? 0 : min;
+            scales[column] = range > 0 ? range / levels : 1;
+            weights[column] = scales[column] * scales[column];
+        }
+    }
+
+    private void encode(FeatureMatrix source) {
+        for (int row = 0; row < rows; row++) {
+            labels[row] = source.label(row);
+            int offset = row * columns;
+            for (int column = 0; column < columns; column++) {
+                double code = (source.get(row, column) - offsets[column]) / scales[column];
+                if (storage == FeatureStorage.INT8) {
+                    bytes[offset + column] = (byte) (Math.round(code) - INT8_SHIFT);
+                } else {
+                    floats[offset + column] = (float) code;
+                }
+            }
+        }
+    }
+
+    // Moves the query into code space once, so the per-row loop never decodes stored values
+    public double[] prepareQuery(Vector query) {
+        return prepareQuery(query, new double[columns]);
+    }
+
+    public double[] prepareQuery(Vector query, double[] prepared) {
+        double[] values = query.array();
+        if (values.length != columns || prepared.length < columns) {
+            throw new IllegalArgumentException("Vectors must be the same length");
+        }
+        for (int column = 0; column < columns; column++) {
+            prepared[column] = (values[column] - offsets[column]) / scales[column] - shift;
+        }
+        return prepared;
+    }
+
+    public double squaredDistanceTo(int row, double[] preparedQuery) {
+        checkRow(row);
+        int offset = row * columns;
+        double sum = 0;
+        if (storage == FeatureStorage.INT8) {
+            for (int column = 0; column < columns; column++) {
+                double d = bytes[offset + column] - preparedQuery[column];
+                sum += weights[column] * d * d;
+            }
+        } else {
+            for (int column = 0; column < columns; column++) {
+                double d = floats[offset + column] - preparedQuery[column];
+                sum += weights[column] * d * d;
+            }
+        }
+        return sum;
+    }
+
+    public double get(int row, int column) {
+        checkRow(row);
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("Invalid column: " + column);
+        }
+        int index = row * columns + column;
+        double code = storage == FeatureStorage.INT8 ? bytes[index] : floats[index];
+        return offsets[column] + scales[column] * (code + shift);
+    }
+
+    public int label(int row) {
+        checkRow(row);
+        return labels[row];
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    public FeatureStorage storage() {
+        return storage;
+    }
+
+    public long featureBytes() {
+        return (long) rows * columns * storage.bytesPerValue();
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Invalid row: " + row);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.nai.structures;
+
+// Distance between two row-major ranges; may stop early and return any value >= bound once the result reaches it
+public interface RowDistance {
+    double distance(double[] a, int aOffset, double[] b, int bOffset, int length, double bound);
+}
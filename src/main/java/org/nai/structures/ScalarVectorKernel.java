@@ -0,0 +1,79 @@
+package org.nai.structures;
+
+import java.lang.foreign.MemorySegment;
+
+import static org.nai.structures.SegmentFeatureMatrix.VALUE_LAYOUT;
+
+final class ScalarVectorKernel implements VectorKernel {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double result = 0;
+        for (int i = 0; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            double d = a[aOffset + i] - b[bOffset + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    @Override
+    public void add(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i++) {
+            result[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void scale(double[] a, double scalar, double[] result, int length) {
+        for (int i = 0; i < length; i++) {
+            result[i] = a[i] * scalar;
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int length) {
+        for (int i = 0; i < length; i++) {
+            y[i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public double dot(MemorySegment a, long aIndex, double[] b, int length) {
+        double result = 0;
+        for (int i = 0; i < length; i++) {
+            result += a.getAtIndex(VALUE_LAYOUT, aIndex + i) * b[i];
+        }
+        return result;
+    }
+
+    @Override
+    public double squaredDistance(MemorySegment a, long aIndex, double[] b, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            double d = a.getAtIndex(VALUE_LAYOUT, aIndex + i) - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, MemorySegment x, long xIndex, double[] y, int length) {
+        for (int i = 0; i < length; i++) {
+            y[i] += alpha * x.getAtIndex(VALUE_LAYOUT, xIndex + i);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.nai.structures;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Read-only matrix living in a MemorySegment; the segment's arena decides how long it stays valid.
+// Layout: header (magic, version, rows, columns), labels padded to 8 bytes, then row-major values.
+public class SegmentFeatureMatrix extends FeatureMatrix {
+    static final ValueLayout.OfDouble VALUE_LAYOUT = ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt INT_LAYOUT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private static final int MAGIC = 0x4E414946; // "NAIF"
+    private static final int VERSION = 1;
+    private static final long HEADER_BYTES = 4L * Integer.BYTES;
+
+    private final MemorySegment labels;
+    private final MemorySegment values;
+    private final int rows;
+    private final int columns;
+
+    private SegmentFeatureMatrix(MemorySegment segment) {
+        if (segment.byteSize() < HEADER_BYTES
+                || segment.getAtIndex(INT_LAYOUT, 0) != MAGIC
+                || segment.getAtIndex(INT_LAYOUT, 1) != VERSION) {
+            throw new IllegalArgumentException("Segment does not hold a feature matrix");
+        }
+        this.rows = segment.getAtIndex(INT_LAYOUT, 2);
+        this.columns = segment.getAtIndex(INT_LAYOUT, 3);
+        if (segment.byteSize() < byteSize(rows, columns)) {
+            throw new IllegalArgumentException("Feature matrix segment is truncated");
+        }
+        this.labels = segment.asSlice(HEADER_BYTES, (long) rows * Integer.BYTES);
+        this.values = segment.asSlice(valuesOffset(rows), (long) rows * columns * Double.BYTES);
+    }
+
+    public static long byteSize(int rows, int columns) {
+        return valuesOffset(rows) + (long) rows * columns * Double.BYTES;
+    }
+
+    public static SegmentFeatureMatrix copyOf(FeatureMatrix source, Arena arena) {
+        MemorySegment segment = arena.allocate(byteSize(source.rows(), source.columns()), Double.BYTES);
+        writeInto(source, segment);
+        return new SegmentFeatureMatrix(segment);
+    }
+
+    public static SegmentFeatureMatrix map(Path file, Arena arena) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new SegmentFeatureMatrix(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
+        }
+    }
+
+    public static void write(FeatureMatrix source, Path file) throws IOException {
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(file,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    byteSize(source.rows(), source.columns()), arena);
+            writeInto(source, segment);
+            segment.force();
+        }
+    }
+
+    private static void writeInto(FeatureMatrix source, MemorySegment segment) {
+        int rows = source.rows();
+        int columns = source.columns();
+        segment.setAtIndex(INT_LAYOUT, 0, MAGIC);
+        segment.setAtIndex(INT_LAYOUT, 1, VERSION);
+        segment.setAtIndex(INT_LAYOUT, 2, rows);
+        segment.setAtIndex(INT_LAYOUT, 3, columns);
+
+        double[] row = new double[columns];
+        long valuesOffset = valuesOffset(rows);
+        for (int i = 0; i < rows; i++) {
+            segment.set(INT_LAYOUT, HEADER_BYTES + (long) i * Integer.BYTES, source.label(i));
+            source.copyRow(i, row, 0);
+            MemorySegment.copy(row, 0, segment, VALUE_LAYOUT, valuesOffset + (long) i * columns * Double.BYTES, columns);
+        }
+    }
+
+    private static long valuesOffset(int rows) {
+        long labelsEnd = HEADER_BYTES + (long) rows * Integer.BYTES;
+        return (labelsEnd + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int columns() {
+        return columns;
+    }
+
+    @Override
+    public int label(int row) {
+        checkRow(row);
+        return labels.getAtIndex(INT_LAYOUT, row);
+    }
+
+    @Override
+    public double get(int row, int column) {
+        checkRow(row);
+        checkColumn(column);
+        return values.getAtIndex(VALUE_LAYOUT, (long) row * columns + column);
+    }
+
+    @Override
+    public void copyRow(int row, double[] target, int offset) {
+        checkRow(row);
+        MemorySegment.copy(values, VALUE_LAYOUT, (long) row * columns * Double.BYTES, target, offset, columns);
+    }
+
+    @Override
+    public double dot(int row, Vector vector) {
+        checkRow(row);
+        double[] other = vector.array();
+        checkLength(other.length);
+        return VectorKernels.get().dot(values, (long) row * columns, other, columns);
+    }
+
+    @Override
+    public double squaredDistanceTo(int row, Vector vector) {
+        checkRow(row);
+        double[] other = vector.array();
+        checkLength(other.length);
+        return VectorKernels.get().squaredDistance(values, (long) row * columns, other, columns);
+    }
+
+    @Override
+    public void addScaledRowTo(int row, double alpha, Vector target) {
+        checkRow(row);
+        double[] other = target.array();
+        checkLength(other.length);
+        VectorKernels.get().axpy(alpha, values, (long) row * columns, other, columns);
+    }
+}
@@ -0,0 +1,156 @@
+package org.nai.structures;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+// Only loaded reflectively by VectorKernels, so the class never links when jdk.incubator.vector is absent
+final class SimdVectorKernel implements VectorKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final ByteOrder SEGMENT_ORDER = SegmentFeatureMatrix.VALUE_LAYOUT.order();
+
+    @Override
+    public String name() {
+        return "simd-" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i, tail);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i, tail);
+            acc = va.fma(vb, acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    public double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOffset + i));
+            acc = d.fma(d, acc);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector d = DoubleVector.fromArray(SPECIES, a, aOffset + i, tail)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOffset + i, tail));
+            acc = d.fma(d, acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    public void add(double[] a, double[] b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i)
+                    .add(DoubleVector.fromArray(SPECIES, b, i))
+                    .intoArray(result, i);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector.fromArray(SPECIES, a, i, tail)
+                    .add(DoubleVector.fromArray(SPECIES, b, i, tail))
+                    .intoArray(result, i, tail);
+        }
+    }
+
+    @Override
+    public void scale(double[] a, double scalar, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i)
+                    .mul(scalar)
+                    .intoArray(result, i);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector.fromArray(SPECIES, a, i, tail)
+                    .mul(scalar)
+                    .intoArray(result, i, tail);
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int length) {
+        DoubleVector scalar = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, xOffset + i)
+                    .fma(scalar, DoubleVector.fromArray(SPECIES, y, i))
+                    .intoArray(y, i);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector.fromArray(SPECIES, x, xOffset + i, tail)
+                    .fma(scalar, DoubleVector.fromArray(SPECIES, y, i, tail))
+                    .intoArray(y, i, tail);
+        }
+    }
+
+    @Override
+    public double dot(MemorySegment a, long aIndex, double[] b, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromMemorySegment(SPECIES, a, (aIndex + i) * Double.BYTES, SEGMENT_ORDER);
+            acc = va.fma(DoubleVector.fromArray(SPECIES, b, i), acc);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector va = DoubleVector.fromMemorySegment(SPECIES, a, (aIndex + i) * Double.BYTES, SEGMENT_ORDER, tail);
+            acc = va.fma(DoubleVector.fromArray(SPECIES, b, i, tail), acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    public double squaredDistance(MemorySegment a, long aIndex, double[] b, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector d = DoubleVector.fromMemorySegment(SPECIES, a, (aIndex + i) * Double.BYTES, SEGMENT_ORDER)
+                    .sub(DoubleVector.fromArray(SPECIES, b, i));
+            acc = d.fma(d, acc);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector d = DoubleVector.fromMemorySegment(SPECIES, a, (aIndex + i) * Double.BYTES, SEGMENT_ORDER, tail)
+                    .sub(DoubleVector.fromArray(SPECIES, b, i, tail));
+            acc = d.fma(d, acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    public void axpy(double alpha, MemorySegment x, long xIndex, double[] y, int length) {
+        DoubleVector scalar = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromMemorySegment(SPECIES, x, (xIndex + i) * Double.BYTES, SEGMENT_ORDER)
+                    .fma(scalar, DoubleVector.fromArray(SPECIES, y, i))
+                    .intoArray(y, i);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector.fromMemorySegment(SPECIES, x, (xIndex + i) * Double.BYTES, SEGMENT_ORDER, tail)
+                    .fma(scalar, DoubleVector.fromArray(SPECIES, y, i, tail))
+                    .intoArray(y, i, tail);
+        }
+    }
+}
@@ -1,10 +1,23 @@
 package org.nai.structures;
 
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 
-public record Vector(double[] data) {
+public final class Vector {
+    private final double[] data;
+
     public Vector(double[] data) {
-        this.data = data.clone();
+        this(data, false);
+    }
+
+    // Sharing skips the defensive copy, only reachable through wrap
+    private Vector(double[] data, boolean share) {
+        this.data = share ? data : data.clone();
+    }
+
+    // Takes ownership of the array without copying it; the caller must not touch it afterwards
+    public static Vector wrap(double[] data) {
+        return new Vector(data, true);
     }
 
     public int size() {
@@ -21,35 +34,55 @@ public record Vector(double[] data) {
         data[index] = value;
     }
 
-    @Override
     public double[] data() {
         return data.clone();
     }
 
+    // Read-only window onto the backing array, no copy is made
+    public DoubleBuffer view() {
+        return DoubleBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    // Package-private: lets sibling structures read the backing array without the defensive copy
+    double[] array() {
+        return data;
+    }
+
     public Vector add(Vector other) {
         checkDimension(other);
         double[] result = new double[data.length];
-        for (int i = 0; i < data.length; i++) {
-            result[i] = data[i] + other.data[i];
-        }
-        return new Vector(result);
+        VectorKernels.get().add(data, other.data, result, data.length);
+        return wrap(result);
     }
 
     public Vector scale(double scalar) {
         double[] result = new double[data.length];
-        for (int i = 0; i < data.length; i++) {
-            result[i] = data[i] * scalar;
-        }
-        return new Vector(result);
+        VectorKernels.get().scale(data, scalar, result, data.length);
+        return wrap(result);
+    }
+
+    // In-place variants: mutate and return this vector instead of allocating a new one
+
+    public Vector addInPlace(Vector other) {
+        checkDimension(other);
+        VectorKernels.get().add(data, other.data, data, data.length);
+        return this;
+    }
+
+    public Vector scaleInPlace(double scalar) {
+        VectorKernels.get().scale(data, scalar, data, data.length);
+        return this;
+    }
+
+    public Vector axpy(double alpha, Vector x) {
+        checkDimension(x);
+        VectorKernels.get().axpy(alpha, x.data, 0, data, data.length);
+        return this;
     }
 
     public double dot(Vector other) {
         checkDimension(other);
-        double result = 0;
-        for (int i = 0; i < data.length; i++) {
-            result += data[i] * other.data[i];
-        }
-        return result;
+        return VectorKernels.get().dot(data, 0, other.data, 0, data.length);
     }
 
     public double norm() {
@@ -62,12 +95,7 @@ public record Vector(double[] data) {
 
     public double squaredDistanceTo(Vector other) {
         checkDimension(other);
-        double sum = 0;
-        for (int i = 0; i < data.length; i++) {
-            double d = data[i] - other.data[i];
-            sum += d * d;
-        }
-        return sum;
+        return VectorKernels.get().squaredDistance(data, 0, other.data, 0, data.length);
     }
 
     private void checkDimension(Vector other) {
@@ -82,6 +110,18 @@ public record Vector(double[] data) {
         }
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Vector other)) return false;
+        return Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(data);
+    }
+
     @Override
     public String toString() {
         return Arrays.toString(data);
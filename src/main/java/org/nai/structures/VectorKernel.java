@@ -0,0 +1,26 @@
+package org.nai.structures;
+
+import java.lang.foreign.MemorySegment;
+
+public interface VectorKernel {
+    String name();
+
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    void add(double[] a, double[] b, double[] result, int length);
+
+    void scale(double[] a, double scalar, double[] result, int length);
+
+    // y[0, length) += alpha * x[xOffset, xOffset + length)
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int length);
+
+    // Off-heap variants: a holds little-endian doubles, indices count elements rather than bytes
+
+    double dot(MemorySegment a, long aIndex, double[] b, int length);
+
+    double squaredDistance(MemorySegment a, long aIndex, double[] b, int length);
+
+    void axpy(double alpha, MemorySegment x, long xIndex, double[] y, int length);
+}
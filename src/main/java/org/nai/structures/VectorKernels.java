@@ -0,0 +1,48 @@
+package org.nai.structures;
+
+public final class VectorKernels {
+    // -Dnai.kernel=scalar forces the plain loops even when the Vector API is available
+    private static final String KERNEL_PROPERTY = "nai.kernel";
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final VectorKernel SCALAR = new ScalarVectorKernel();
+    private static final VectorKernel SIMD = loadSimd();
+    private static final VectorKernel ACTIVE = select();
+
+    private VectorKernels() {}
+
+    public static VectorKernel get() {
+        return ACTIVE;
+    }
+
+    public static VectorKernel scalar() {
+        return SCALAR;
+    }
+
+    public static VectorKernel simd() {
+        if (SIMD == null) {
+            throw new IllegalStateException("Vector API unavailable, run with --add-modules " + VECTOR_MODULE);
+        }
+        return SIMD;
+    }
+
+    public static boolean isSimdAvailable() {
+        return SIMD != null;
+    }
+
+    private static VectorKernel select() {
+        if ("scalar".equalsIgnoreCase(System.getProperty(KERNEL_PROPERTY))) return SCALAR;
+        return SIMD != null ? SIMD : SCALAR;
+    }
+
+    private static VectorKernel loadSimd() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) return null;
+        try {
+            return (VectorKernel) Class.forName("org.nai.structures.SimdVectorKernel")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.nai.utils;
+
+import java.util.Arrays;
+
+// Maps double values to dense indices 0, 1, 2, ... in insertion order, with open addressing over primitive arrays.
+// Values are compared by their bits, so -0.0 and 0.0 are distinct and every NaN is the same key.
+public class DoubleIndexMap {
+    private static final int EMPTY = -1;
+
+    private long[] keys;
+    private int[] indices;
+    private double[] values;
+    private int size;
+
+    public DoubleIndexMap() {
+        this(16);
+    }
+
+    public DoubleIndexMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        indices = new int[capacity];
+        Arrays.fill(indices, EMPTY);
+        values = new double[Math.max(4, expectedSize)];
+    }
+
+    // Index of the value, or -1 when it was never added
+    public int get(double value) {
+        long key = Double.doubleToLongBits(value);
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (indices[slot] == EMPTY) return -1;
+            if (keys[slot] == key) return indices[slot];
+        }
+    }
+
+    // Index of the value, assigning the next free one if it is new
+    public int add(double value) {
+        long key = Double.doubleToLongBits(value);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; indices[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return indices[slot];
+        }
+
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size] = value;
+        keys[slot] = key;
+        indices[slot] = size;
+        // Keeps the load factor at or below one half
+        if (++size * 2 > keys.length) rehash();
+        return size - 1;
+    }
+
+    public double value(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Invalid index: " + index);
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Helper
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldIndices = indices;
+        keys = new long[oldKeys.length * 2];
+        indices = new int[oldIndices.length * 2];
+        Arrays.fill(indices, EMPTY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldIndices[i] == EMPTY) continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (indices[slot] != EMPTY) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            indices[slot] = oldIndices[i];
+        }
+    }
+
+    // Doubles that differ only in their low mantissa bits are common, so mix them into the high bits
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}